@@ -0,0 +1,83 @@
+package com.coveo;
+
+import com.google.googlejavaformat.java.Formatter;
+import com.google.googlejavaformat.java.JavaFormatterOptions;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the per-file pipeline (google-java-format, unused import removal, import ordering)
+ * on a single thread, in files per second, and of checking whether a file is already formatted.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {
+      JavacExports.IGNORED_ON_JAVA_8,
+      JavacExports.API,
+      JavacExports.CODE,
+      JavacExports.FILE,
+      JavacExports.PARSER,
+      JavacExports.TREE,
+      JavacExports.UTIL
+    })
+public class FormatPipelineBenchmark {
+
+  /** Number of methods of the formatted class: about 10, 100 and 1000 lines. */
+  @Param({"1", "10", "100"})
+  public int methods;
+
+  @Param({"false", "true"})
+  public boolean compliant;
+
+  private String source;
+  private JavaSourceFormatter formatter;
+  private JavaSourceFormatter rememberingFormatter;
+
+  @Setup
+  public void setUp() {
+    source = SyntheticCorpus.source(methods, compliant);
+    JavaFormatterOptions.Style style = JavaFormatterOptions.Style.GOOGLE;
+    Formatter gjf = new Formatter(JavaFormatterOptions.builder().style(style).build());
+    // Without remembered sources, so that every call runs the stages being measured.
+    formatter = new JavaSourceFormatter(gjf, style, false, 0);
+    rememberingFormatter = new JavaSourceFormatter(gjf, style, false);
+  }
+
+  @Benchmark
+  public String formatSourceFile() throws FormatterEngineException {
+    return formatter.format(source);
+  }
+
+  /** What the check goal used to do: run the whole pipeline and compare. */
+  @Benchmark
+  public boolean checkByFormatting() throws FormatterEngineException {
+    return formatter.format(source).equals(source);
+  }
+
+  /** What the check goal does: stop at the first stage that changes the source. */
+  @Benchmark
+  public boolean checkByVerifying() throws FormatterEngineException {
+    return formatter.isFormatted(source);
+  }
+
+  /** What the check goal does for a source it already found formatted, as in the daemon. */
+  @Benchmark
+  public boolean checkKnownSource() throws FormatterEngineException {
+    return rememberingFormatter.isFormatted(source);
+  }
+}
@@ -0,0 +1,111 @@
+package com.coveo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of the <code>check</code> and <code>format</code> goals with file I/O on platform and
+ * on virtual threads, in files per second. Point <code>directory</code> to a network filesystem,
+ * e.g. <code>-p directory=/mnt/nfs</code>, where reads wait on the network. Virtual threads are
+ * only used when the benchmark runs on Java 21 or later, otherwise both runs use platform threads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {
+      JavacExports.IGNORED_ON_JAVA_8,
+      JavacExports.API,
+      JavacExports.CODE,
+      JavacExports.FILE,
+      JavacExports.PARSER,
+      JavacExports.TREE,
+      JavacExports.UTIL
+    })
+public class IoThreadsBenchmark {
+
+  static final int FILES = 2000;
+
+  @Param({"false", "true"})
+  public boolean virtualThreads;
+
+  /** Directory the files are written to, or empty for the default temporary directory. */
+  @Param({""})
+  public String directory;
+
+  private Path root;
+  private Path pristine;
+  private Path workspace;
+
+  @Setup
+  public void setUp() throws IOException {
+    root =
+        directory.isEmpty()
+            ? Files.createTempDirectory("fmt-io-benchmark")
+            : Files.createTempDirectory(Paths.get(directory), "fmt-io-benchmark");
+    pristine = root.resolve("pristine");
+    workspace = root.resolve("src");
+    SyntheticCorpus.write(pristine, FILES, 0.9, 1);
+  }
+
+  /** Restores the unformatted files, since the format goal rewrites them. */
+  @Setup(Level.Invocation)
+  public void restoreWorkspace() throws IOException {
+    SyntheticCorpus.copy(pristine, workspace);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    SyntheticCorpus.delete(root);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FILES)
+  public int check() throws MojoExecutionException {
+    Check check = Mojos.create(Check.class, workspace.toFile(), parameters());
+    try {
+      check.execute();
+    } catch (MojoFailureException e) {
+      // Expected, since some files are not formatted.
+    }
+    return check.getResults().getFilesProcessedCount();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FILES)
+  public int format() throws MojoExecutionException, MojoFailureException {
+    FMT fmt = Mojos.create(FMT.class, workspace.toFile(), parameters());
+    fmt.execute();
+    return fmt.getResults().getFilesProcessedCount();
+  }
+
+  private Map<String, Object> parameters() {
+    Map<String, Object> parameters = new HashMap<>();
+    parameters.put("virtualThreads", virtualThreads);
+    return parameters;
+  }
+}
@@ -0,0 +1,20 @@
+package com.coveo;
+
+/**
+ * JVM arguments exporting the javac internals used by google-java-format, which are required when
+ * forking benchmarks on JDK 16 and later. Java 8 does not know them and refuses to start unless
+ * {@link #IGNORED_ON_JAVA_8} comes first.
+ */
+final class JavacExports {
+
+  static final String IGNORED_ON_JAVA_8 = "-XX:+IgnoreUnrecognizedVMOptions";
+
+  static final String API = "--add-exports=jdk.compiler/com.sun.tools.javac.api=ALL-UNNAMED";
+  static final String CODE = "--add-exports=jdk.compiler/com.sun.tools.javac.code=ALL-UNNAMED";
+  static final String FILE = "--add-exports=jdk.compiler/com.sun.tools.javac.file=ALL-UNNAMED";
+  static final String PARSER = "--add-exports=jdk.compiler/com.sun.tools.javac.parser=ALL-UNNAMED";
+  static final String TREE = "--add-exports=jdk.compiler/com.sun.tools.javac.tree=ALL-UNNAMED";
+  static final String UTIL = "--add-exports=jdk.compiler/com.sun.tools.javac.util=ALL-UNNAMED";
+
+  private JavacExports() {}
+}
@@ -0,0 +1,95 @@
+package com.coveo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end throughput of the <code>check</code> and <code>format</code> goals on a synthetic tree
+ * of {@value #FILES} files, in files per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(
+    value = 1,
+    jvmArgsAppend = {
+      JavacExports.IGNORED_ON_JAVA_8,
+      JavacExports.API,
+      JavacExports.CODE,
+      JavacExports.FILE,
+      JavacExports.PARSER,
+      JavacExports.TREE,
+      JavacExports.UTIL
+    })
+public class MojoBenchmark {
+
+  static final int FILES = 2000;
+
+  /** Fraction of the files that are already formatted. */
+  @Param({"1.0", "0.9"})
+  public double compliantRatio;
+
+  private Path root;
+  private Path pristine;
+  private Path workspace;
+
+  @Setup
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("fmt-mojo-benchmark");
+    pristine = root.resolve("pristine");
+    workspace = root.resolve("src");
+    SyntheticCorpus.write(pristine, FILES, compliantRatio, 1);
+  }
+
+  /** Restores the unformatted files, since the format goal rewrites them. */
+  @Setup(Level.Invocation)
+  public void restoreWorkspace() throws IOException {
+    SyntheticCorpus.copy(pristine, workspace);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    SyntheticCorpus.delete(root);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FILES)
+  public int check() throws MojoExecutionException {
+    Check check = Mojos.create(Check.class, workspace.toFile(), Collections.emptyMap());
+    try {
+      check.execute();
+    } catch (MojoFailureException e) {
+      // Expected when some files are not formatted.
+    }
+    return check.getResults().getFilesProcessedCount();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FILES)
+  public int format() throws MojoExecutionException, MojoFailureException {
+    FMT fmt = Mojos.create(FMT.class, workspace.toFile(), Collections.emptyMap());
+    fmt.execute();
+    return fmt.getResults().getFilesProcessedCount();
+  }
+}
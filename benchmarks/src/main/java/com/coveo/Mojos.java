@@ -0,0 +1,64 @@
+package com.coveo;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates mojos configured the way Maven would configure them from a minimal plugin declaration,
+ * without starting Maven.
+ */
+final class Mojos {
+
+  private Mojos() {}
+
+  /**
+   * Creates a mojo formatting a single source directory with the default configuration.
+   *
+   * @param type the mojo class
+   * @param sourceDirectory the source directory to format
+   * @param overrides parameters to set in addition to the defaults, by field name
+   * @return the mojo
+   */
+  static <T extends AbstractFMT> T create(
+      Class<T> type, File sourceDirectory, Map<String, Object> overrides) {
+    Map<String, Object> parameters = new HashMap<>();
+    parameters.put("sourceDirectory", sourceDirectory);
+    parameters.put("testSourceDirectory", new File(sourceDirectory, "does-not-exist"));
+    parameters.put("packaging", "jar");
+    parameters.put("additionalSourceDirectories", new File[0]);
+    parameters.put("filesNamePattern", ".*\\.java");
+    parameters.put("filesPathPattern", ".*");
+    parameters.put("style", "google");
+    parameters.put("cacheDirectory", new File(sourceDirectory.getParentFile(), "fmt-cache"));
+    parameters.put("displayFiles", true);
+    parameters.put("displayLimit", 100);
+    parameters.putAll(overrides);
+    try {
+      T mojo = type.getDeclaredConstructor().newInstance();
+      mojo.setLog(new QuietLog());
+      for (Map.Entry<String, Object> parameter : parameters.entrySet()) {
+        Field field = field(type, parameter.getKey());
+        if (field != null) {
+          field.setAccessible(true);
+          field.set(mojo, parameter.getValue());
+        }
+      }
+      return mojo;
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Cannot create " + type.getSimpleName(), e);
+    }
+  }
+
+  private static Field field(Class<?> type, String name) {
+    for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+      try {
+        return current.getDeclaredField(name);
+      } catch (NoSuchFieldException e) {
+        // Declared by a superclass.
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,79 @@
+package com.coveo;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/** Cost per path of matching file names and paths, as done for every file of a source tree. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SourcePathFilterBenchmark {
+
+  private static final int PATHS = 1024;
+  private static final String FILES_NAME_PATTERN = ".*\\.java";
+  private static final String FILES_PATH_PATTERN = "^((?!\\Wgenerated\\W).)*\\.java$";
+
+  private final Path[] paths = new Path[PATHS];
+  private final String[] names = new String[PATHS];
+  private final String[] pathStrings = new String[PATHS];
+  private Pattern namePattern;
+  private Pattern pathPattern;
+  private SourcePathFilter filter;
+
+  @Setup
+  public void setUp() {
+    for (int i = 0; i < PATHS; i++) {
+      String directory = i % 10 == 0 ? "generated" : "module" + (i % 7);
+      paths[i] = Paths.get("com", "coveo", directory, "pkg" + (i % 13), "Source" + i + ".java");
+      names[i] = paths[i].getFileName().toString();
+      pathStrings[i] = "/workspace/src/main/java/" + paths[i];
+    }
+    namePattern = Pattern.compile(FILES_NAME_PATTERN);
+    pathPattern = Pattern.compile(FILES_PATH_PATTERN);
+    filter = SourcePathFilter.of(new String[] {"**/*.java"}, new String[] {"**/generated/**"});
+  }
+
+  /** The previous implementation, which recompiled both regular expressions for every file. */
+  @Benchmark
+  @OperationsPerInvocation(PATHS)
+  public void stringMatches(Blackhole blackhole) {
+    for (int i = 0; i < PATHS; i++) {
+      blackhole.consume(
+          names[i].matches(FILES_NAME_PATTERN) && pathStrings[i].matches(FILES_PATH_PATTERN));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PATHS)
+  public void precompiledPatterns(Blackhole blackhole) {
+    for (int i = 0; i < PATHS; i++) {
+      blackhole.consume(
+          namePattern.matcher(names[i]).matches() && pathPattern.matcher(pathStrings[i]).matches());
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PATHS)
+  public void includesAndExcludes(Blackhole blackhole) {
+    for (int i = 0; i < PATHS; i++) {
+      blackhole.consume(filter.acceptsFile(paths[i]));
+    }
+  }
+}
@@ -0,0 +1,70 @@
+package com.coveo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of walking a source tree and filtering its files, in files per second. A tenth of the
+ * tree lives in a <code>generated</code> directory that is excluded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourceTreeWalkBenchmark {
+
+  private static final int FILES = 5000;
+  private static final int GENERATED_FILES = FILES / 10;
+
+  private Path root;
+  private Predicate<Path> fileNameFilter;
+  private SourcePathFilter sourcePathFilter;
+
+  @Setup
+  public void setUp() throws IOException {
+    root = Files.createTempDirectory("fmt-walk-benchmark");
+    SyntheticCorpus.write(root, FILES - GENERATED_FILES, 0, 1);
+    SyntheticCorpus.write(root.resolve("generated"), GENERATED_FILES, 0, 2);
+    Pattern namePattern = Pattern.compile(".*\\.java");
+    fileNameFilter = path -> namePattern.matcher(path.getFileName().toString()).matches();
+    sourcePathFilter = SourcePathFilter.of(null, new String[] {"generated/**"});
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    SyntheticCorpus.delete(root);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(FILES)
+  public int walkAndFilter() throws IOException {
+    AtomicInteger accepted = new AtomicInteger();
+    Files.walkFileTree(
+        root,
+        new SourceFileVisitor(
+            root,
+            dir -> sourcePathFilter.acceptsDirectory(root.relativize(dir)),
+            fileNameFilter.and(path -> sourcePathFilter.acceptsFile(root.relativize(path))),
+            (path, attrs) -> accepted.incrementAndGet()));
+    return accepted.get();
+  }
+}
@@ -0,0 +1,196 @@
+package com.coveo;
+
+import com.google.common.base.Charsets;
+import com.google.googlejavaformat.java.Formatter;
+import com.google.googlejavaformat.java.JavaFormatterOptions;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates reproducible Java sources of varied sizes. Generated classes import a few types they do
+ * not use, in no particular order, and are not indented, so that every stage of the pipeline has
+ * work to do on them.
+ */
+final class SyntheticCorpus {
+
+  private static final List<String> IMPORTS =
+      Arrays.asList(
+          "java.util.ArrayList",
+          "java.util.HashMap",
+          "java.util.List",
+          "java.util.Map",
+          "java.io.IOException",
+          "java.util.Set",
+          "java.util.concurrent.TimeUnit",
+          "java.util.function.Function");
+
+  private static final JavaSourceFormatter FORMATTER =
+      new JavaSourceFormatter(
+          new Formatter(
+              JavaFormatterOptions.builder().style(JavaFormatterOptions.Style.GOOGLE).build()),
+          JavaFormatterOptions.Style.GOOGLE,
+          false);
+
+  private SyntheticCorpus() {}
+
+  /**
+   * Generates the source of a class.
+   *
+   * @param packageName the package of the class
+   * @param className the name of the class
+   * @param methods the number of methods, which drives the size of the source
+   * @param random the source of randomness
+   * @return the source, which is not formatted
+   */
+  static String source(String packageName, String className, int methods, Random random) {
+    List<String> imports = new ArrayList<>(IMPORTS);
+    Collections.shuffle(imports, random);
+    StringBuilder source = new StringBuilder();
+    source.append("package ").append(packageName).append(";\n\n");
+    for (String type : imports) {
+      source.append("import ").append(type).append(";\n");
+    }
+    source.append("\npublic class ").append(className).append(" {\n");
+    source.append("private final Map<String, List<Integer>> values = new HashMap<>();\n");
+    for (int i = 0; i < methods; i++) {
+      source
+          .append("public List<Integer> method")
+          .append(i)
+          .append("(int a, int b) throws IOException {\n")
+          .append("List<Integer> result = new ArrayList<>();\n")
+          .append("for (int i = 0; i < a; i++) { if (i % ")
+          .append(random.nextInt(9) + 2)
+          .append(" == 0) { result.add(i * b + ")
+          .append(random.nextInt(1000))
+          .append("); } else { result.add(values.size()); } }\n")
+          .append("values.put(\"method")
+          .append(i)
+          .append("\", result);\n")
+          .append("return result;\n}\n");
+    }
+    return source.append("}\n").toString();
+  }
+
+  /**
+   * Generates a source of the given size.
+   *
+   * @param methods the number of methods
+   * @param compliant whether the source should already be formatted
+   * @return the source
+   */
+  static String source(int methods, boolean compliant) {
+    String source = source("com.coveo.synthetic", "Synthetic", methods, new Random(methods));
+    return compliant ? format(source) : source;
+  }
+
+  /**
+   * Writes a tree of sources whose sizes follow a long-tailed distribution: most classes are small,
+   * a few are very large.
+   *
+   * @param sourceDirectory the directory to write the sources to
+   * @param files the number of files to write
+   * @param compliantRatio the fraction of files that should already be formatted
+   * @param seed the seed making the tree reproducible
+   * @throws IOException if the files cannot be written
+   */
+  static void write(Path sourceDirectory, int files, double compliantRatio, long seed)
+      throws IOException {
+    Random random = new Random(seed);
+    for (int i = 0; i < files; i++) {
+      String packageName = "com.coveo.synthetic.module" + (i % 17) + ".pkg" + (i % 5);
+      String className = "Synthetic" + i;
+      String source = source(packageName, className, methods(random), random);
+      if (random.nextDouble() < compliantRatio) {
+        source = format(source);
+      }
+      Path directory = sourceDirectory.resolve(packageName.replace('.', '/'));
+      Files.createDirectories(directory);
+      Files.write(directory.resolve(className + ".java"), source.getBytes(Charsets.UTF_8));
+    }
+  }
+
+  /**
+   * Copies a tree, replacing the files already present in the target.
+   *
+   * @param source the tree to copy
+   * @param target where to copy it
+   * @throws IOException if the tree cannot be copied
+   */
+  static void copy(Path source, Path target) throws IOException {
+    Files.walkFileTree(
+        source,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
+              throws IOException {
+            Files.createDirectories(target.resolve(source.relativize(dir)));
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Files.copy(
+                file, target.resolve(source.relativize(file)), StandardCopyOption.REPLACE_EXISTING);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  /**
+   * Deletes a tree.
+   *
+   * @param root the tree to delete
+   * @throws IOException if the tree cannot be deleted
+   */
+  static void delete(Path root) throws IOException {
+    if (!Files.exists(root)) {
+      return;
+    }
+    Files.walkFileTree(
+        root,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            Files.delete(file);
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+            Files.delete(dir);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private static int methods(Random random) {
+    double bucket = random.nextDouble();
+    if (bucket < 0.70) {
+      return 2 + random.nextInt(8);
+    }
+    if (bucket < 0.95) {
+      return 10 + random.nextInt(70);
+    }
+    return 200 + random.nextInt(200);
+  }
+
+  private static String format(String source) {
+    try {
+      return FORMATTER.format(source);
+    } catch (FormatterEngineException e) {
+      throw new IllegalStateException("Generated an invalid source", e);
+    }
+  }
+}
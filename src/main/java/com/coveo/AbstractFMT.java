@@ -1,26 +1,37 @@
 package com.coveo;
 
 import com.google.common.base.Charsets;
-import com.google.common.io.CharSource;
+import com.google.common.collect.RangeSet;
 import com.google.googlejavaformat.java.*;
 import java.io.File;
-import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Parameter;
 
 public abstract class AbstractFMT extends AbstractMojo {
 
+  static final String BYTE_ORDER_MARK = "\uFEFF";
+
   @Parameter(
       defaultValue = "${project.build.sourceDirectory}",
       property = "sourceDirectory",
@@ -51,6 +62,12 @@ public abstract class AbstractFMT extends AbstractMojo {
   @Parameter(defaultValue = ".*", property = "filesPathPattern")
   private String filesPathPattern;
 
+  @Parameter(property = "fmt.includes")
+  private String[] includes;
+
+  @Parameter(property = "fmt.excludes")
+  private String[] excludes;
+
   @Parameter(defaultValue = "false", property = "fmt.skip")
   private boolean skip = false;
 
@@ -60,8 +77,90 @@ public abstract class AbstractFMT extends AbstractMojo {
   @Parameter(defaultValue = "google", property = "style")
   private String style;
 
-  private List<String> filesProcessed = new CopyOnWriteArrayList<>();
-  private int nonComplyingFiles;
+  @Parameter(defaultValue = "${project.build.sourceEncoding}", property = "fmt.encoding")
+  private String encoding;
+
+  @Parameter(property = "formatterRoutes")
+  private FormatterRoute[] formatterRoutes;
+
+  @Parameter(defaultValue = "false", property = "fmt.useCache")
+  private boolean useCache;
+
+  @Parameter(
+      defaultValue = "${project.build.directory}/fmt-maven-plugin",
+      property = "fmt.cacheDirectory")
+  private File cacheDirectory;
+
+  @Parameter(defaultValue = "false", property = "fmt.incremental")
+  private boolean incremental;
+
+  @Parameter(defaultValue = "false", property = "fmt.useSharedCache")
+  private boolean useSharedCache;
+
+  @Parameter(defaultValue = "${user.home}/.m2/fmt-cache", property = "fmt.sharedCacheDirectory")
+  private File sharedCacheDirectory;
+
+  @Parameter(defaultValue = "268435456", property = "fmt.sharedCacheMaxSize")
+  private long sharedCacheMaxSize;
+
+  @Parameter(defaultValue = "${plugin.version}", readonly = true)
+  private String pluginVersion;
+
+  @Parameter(property = "fmt.ratchetFrom")
+  private String ratchetFrom;
+
+  @Parameter(defaultValue = "false", property = "fmt.changedLinesOnly")
+  private boolean changedLinesOnly;
+
+  @Parameter(defaultValue = "${basedir}", readonly = true)
+  private File basedir;
+
+  @Parameter(defaultValue = "0", property = "fmt.threads")
+  private int threads;
+
+  @Parameter(defaultValue = "true", property = "fmt.virtualThreads")
+  private boolean virtualThreads;
+
+  @Parameter(defaultValue = "0", property = "fmt.slowestFiles")
+  private int slowestFiles;
+
+  @Parameter(property = "fmt.timingReport")
+  private String timingReport;
+
+  @Parameter(
+      defaultValue = "${project.build.directory}/fmt-maven-plugin",
+      property = "fmt.reportDirectory")
+  private File reportDirectory;
+
+  @Parameter(defaultValue = "false", property = "fmt.useDaemon")
+  private boolean useDaemon;
+
+  @Parameter(defaultValue = "${user.home}/.m2/fmt-maven-plugin", property = "fmt.daemonDirectory")
+  private File daemonDirectory;
+
+  @Parameter(defaultValue = "0", property = "fmt.maxFileSize")
+  private long maxFileSize;
+
+  @Parameter(defaultValue = "0", property = "fmt.maxInFlightBytes")
+  private long maxInFlightBytes;
+
+  @Parameter(defaultValue = "false", property = "fmt.metrics")
+  private boolean metrics;
+
+  @Parameter(defaultValue = "${project.artifactId}", readonly = true)
+  private String artifactId;
+
+  private final FormattingResults results = new FormattingResults();
+  private FormattingMetrics formattingMetrics = new FormattingMetrics();
+  private SourceEncoding sourceEncoding = new SourceEncoding(Charsets.UTF_8, false);
+  private FormattingCache cache;
+  private SourceSnapshot snapshot;
+  private FormattedContentStore store;
+  private Set<Path> changedFiles;
+  private Map<Path, RangeSet<Integer>> changedLines;
+  private FormatService service;
+  private DaemonClient daemon;
+  private volatile boolean cancelled;
 
   /**
    * execute.
@@ -74,13 +173,110 @@ public abstract class AbstractFMT extends AbstractMojo {
       getLog().info("Skipping format check");
       return;
     }
-    if ("pom".equals(packaging)) {
-      getLog().info("Skipping format check: project uses 'pom' packaging");
+    List<ModuleSources> modules = collectModules();
+    if (modules.isEmpty()) {
       return;
     }
     if (skipSortingImports) {
       getLog().info("Skipping sorting imports");
     }
+    if (timingReport != null && !TimingReport.isSupportedFormat(timingReport)) {
+      String message =
+          "Unknown timing report format '" + timingReport + "'. Expected 'json' or 'csv'.";
+      getLog().error(message);
+      throw new MojoFailureException(message);
+    }
+
+    sourceEncoding = new SourceEncoding(charset(), !rewritesNonComplyingFiles());
+
+    preExecute();
+
+    formattingMetrics = new FormattingMetrics();
+    if (!metrics) {
+      formatAndReport(modules);
+      return;
+    }
+    ObjectName mbean = registerMetrics();
+    try {
+      formatAndReport(modules);
+    } finally {
+      unregisterMetrics(mbean);
+      writeMetrics();
+    }
+  }
+
+  /** Formats the modules, then logs and saves the outcome of the run. */
+  private void formatAndReport(List<ModuleSources> modules) throws MojoFailureException {
+    JavaFormatterOptions.Style style = style();
+    cache = useCache ? loadCache(style) : null;
+    snapshot = incremental ? loadSnapshot(style) : null;
+    store = useSharedCache ? openStore() : null;
+    if (changedLinesOnly) {
+      changedLines = listChangedLines();
+      changedFiles = changedLines.keySet();
+    } else {
+      changedFiles = ratchetFrom != null ? listChangedFiles() : null;
+    }
+    daemon = useDaemon ? connectDaemon(style) : null;
+    if (virtualThreads && IoThreads.supportsVirtualThreads()) {
+      getLog().debug("Reading and writing files on virtual threads");
+    }
+
+    try (FormatService service = formatService()) {
+      this.service = service;
+      formattingMetrics.meter(service.executors());
+      formatModules(modules, service.getRouter());
+    } finally {
+      this.service = null;
+      if (daemon != null) {
+        daemon.close();
+        daemon = null;
+      }
+    }
+
+    if (store != null) {
+      evictFromStore();
+    }
+    logNumberOfFilesProcessed();
+    for (ModuleSources module : modules) {
+      if (module.name != null) {
+        getLog().info(module.name + ": " + summary(module.results));
+      }
+    }
+    reportTimings();
+    if (cache != null) {
+      saveCache();
+    }
+    if (snapshot != null) {
+      saveSnapshot();
+    }
+    postExecute(results);
+  }
+
+  /**
+   * Lists the modules to format. By default, the source directories of the current project, unless
+   * it uses <code>pom</code> packaging.
+   *
+   * @return the modules to format, or an empty list to skip the execution
+   * @throws MojoFailureException if a directory is missing and failOnUnknownFolder is set
+   */
+  List<ModuleSources> collectModules() throws MojoFailureException {
+    if ("pom".equals(packaging)) {
+      getLog().info("Skipping format check: project uses 'pom' packaging");
+      return Collections.emptyList();
+    }
+    return Collections.singletonList(
+        moduleSources(
+            null, sourceDirectory, testSourceDirectory, additionalSourceDirectories, results));
+  }
+
+  ModuleSources moduleSources(
+      String name,
+      File sourceDirectory,
+      File testSourceDirectory,
+      File[] additionalSourceDirectories,
+      FormattingResults moduleResults)
+      throws MojoFailureException {
     List<File> directoriesToFormat = new ArrayList<>();
     if (sourceDirectory.exists()) {
       directoriesToFormat.add(sourceDirectory);
@@ -100,134 +296,505 @@ public abstract class AbstractFMT extends AbstractMojo {
         handleMissingDirectory("Additional source", additionalSourceDirectory);
       }
     }
+    return new ModuleSources(name, directoriesToFormat, moduleResults);
+  }
 
-    JavaFormatterOptions.Style style = style();
-    Formatter formatter = getFormatter(style);
-
-    for (File directoryToFormat : directoriesToFormat) {
-      formatSourceFilesInDirectory(directoryToFormat, formatter, style);
+  /**
+   * Formats the files of the given modules, on the executors of the execution.
+   *
+   * @param modules the modules to format
+   * @param router picks the engine of each file
+   * @throws MojoFailureException if a file cannot be formatted
+   */
+  void formatModules(List<ModuleSources> modules, FormatterRouter router)
+      throws MojoFailureException {
+    List<CompletableFuture<FileResult>> pending = new ArrayList<>();
+    for (ModuleSources module : modules) {
+      for (File directoryToFormat : module.directories) {
+        pending.addAll(submitSourceFilesInDirectory(directoryToFormat, module.results));
+      }
     }
-
-    logNumberOfFilesProcessed();
-    postExecute(this.filesProcessed, this.nonComplyingFiles);
+    awaitFormatting(pending);
   }
 
   /**
    * Post Execute action. It is called at the end of the execute method. Subclasses can add extra
    * checks.
    *
+   * @param results the outcome of every file processed by the formatter
+   * @throws MojoFailureException if there is an exception
+   */
+  protected void postExecute(FormattingResults results) throws MojoFailureException {
+    postExecute(results.getFilesProcessed(), results.getNonComplyingFilesCount());
+  }
+
+  /**
+   * Post Execute action, called by {@link #postExecute(FormattingResults)}.
+   *
    * @param filesProcessed the list of processed files by the formatter
    * @param nonComplyingFiles the number of files that are not compliant
    * @throws MojoFailureException if there is an exception
+   * @deprecated override {@link #postExecute(FormattingResults)}, which also tells which files were
+   *     not compliant, skipped or failed
    */
+  @Deprecated
   protected void postExecute(List<String> filesProcessed, int nonComplyingFiles)
       throws MojoFailureException {}
 
+  /**
+   * Pre Execute action. It is called once the parameters are validated, before any file is
+   * formatted.
+   *
+   * @throws MojoFailureException if there is an exception
+   */
+  protected void preExecute() throws MojoFailureException {}
+
+  /**
+   * Hook called with the outcome of every file, on the thread that completed it.
+   *
+   * @param result the outcome of the file
+   * @param input the content of the file, or null if it was not read
+   * @param formatted the formatted content of a non-complying file, or null if it was not computed
+   */
+  void onFileProcessed(FileResult result, String input, String formatted) {}
+
+  /**
+   * Stops the run early: the walk of the source directories ends, and files that are not formatted
+   * yet are dropped without an outcome. Files already formatted are still completed.
+   */
+  void cancelFormatting() {
+    cancelled = true;
+    FormatService service = this.service;
+    if (service != null) {
+      service.cancel();
+    }
+  }
+
+  /** @return true if {@link #cancelFormatting()} was called */
+  boolean isFormattingCancelled() {
+    return cancelled;
+  }
+
+  /** @return the encoding of the source files */
+  SourceEncoding getSourceEncoding() {
+    return sourceEncoding;
+  }
+
+  /** @return the shared cache of the last execution, or null if it was not in use */
+  FormattedContentStore getSharedCache() {
+    return store;
+  }
+
+  /** @return the directory the reports are written to */
+  File getReportDirectory() {
+    return reportDirectory;
+  }
+
   /**
    * Getter for the field <code>filesProcessed</code>.
    *
    * @return a {@link java.util.List} object.
    */
   public List<String> getFilesProcessed() {
-    return filesProcessed;
+    return results.getFilesProcessed();
   }
 
+  /**
+   * Getter for the field <code>results</code>.
+   *
+   * @return the outcome of every file processed by the formatter
+   */
+  public FormattingResults getResults() {
+    return results;
+  }
+
+  /**
+   * Formats the files of a directory with the configuration of the execution.
+   *
+   * @param directory the source directory
+   * @param formatter ignored
+   * @param style ignored
+   * @throws MojoFailureException if a file cannot be formatted
+   * @deprecated the formatter and the style are ignored, since every file is formatted with the
+   *     engine its route selects; use {@link #formatSourceFilesInDirectory(File)}
+   */
+  @Deprecated
   public void formatSourceFilesInDirectory(
       File directory, Formatter formatter, JavaFormatterOptions.Style style)
       throws MojoFailureException {
+    formatSourceFilesInDirectory(directory);
+  }
+
+  /**
+   * Formats the files of a directory with the configuration of the execution, each with the engine
+   * its route selects.
+   *
+   * @param directory the source directory
+   * @throws MojoFailureException if a file cannot be formatted
+   */
+  public void formatSourceFilesInDirectory(File directory) throws MojoFailureException {
+    if (service != null) {
+      awaitFormatting(submitSourceFilesInDirectory(directory, results));
+      return;
+    }
+    try (FormatService service = formatService()) {
+      this.service = service;
+      awaitFormatting(submitSourceFilesInDirectory(directory, results));
+    } finally {
+      this.service = null;
+    }
+  }
+
+  private List<CompletableFuture<FileResult>> submitSourceFilesInDirectory(
+      File directory, FormattingResults moduleResults) throws MojoFailureException {
     if (!directory.isDirectory()) {
       getLog().info("Directory '" + directory + "' is not a directory. Skipping.");
-      return;
+      return Collections.emptyList();
     }
 
-    try (Stream<Path> paths = Files.walk(Paths.get(directory.getPath()))) {
-      FileFilter fileNameFilter = getFileNameFilter();
-      FileFilter pathFilter = getPathFilter();
-      long failures =
-          paths.collect(Collectors.toList()).parallelStream()
-              .filter(p -> p.toFile().exists())
-              .map(Path::toFile)
-              .filter(fileNameFilter::accept)
-              .filter(pathFilter::accept)
-              .map(file -> formatSourceFile(file, formatter, style))
-              .filter(r -> !r)
-              .count();
-
-      if (failures > 0) {
-        throw new MojoFailureException(
-            "There where errors when formatting files. Error count: " + failures);
+    Path root = Paths.get(directory.getPath());
+    List<CompletableFuture<FileResult>> pending;
+    try {
+      if (changedFiles != null) {
+        Path realRoot = root.toRealPath();
+        List<Path> files = new ArrayList<>();
+        for (Path path : changedFiles) {
+          if (path.startsWith(realRoot)) {
+            files.add(path);
+          }
+        }
+        pending = service.formatFiles(realRoot, files);
+      } else {
+        pending = service.formatDirectory(root);
       }
     } catch (IOException exception) {
       throw new MojoFailureException(exception.getMessage());
     }
+    List<CompletableFuture<FileResult>> recorded = new ArrayList<>();
+    for (CompletableFuture<FileResult> file : pending) {
+      recorded.add(file.thenApply(result -> addToModule(moduleResults, result)));
+    }
+    return recorded;
+  }
+
+  /**
+   * Creates the service formatting the files of the execution, with the configuration of the mojo
+   * and the caches of the execution.
+   *
+   * @return the service
+   * @throws MojoFailureException if the style or a formatter route is invalid
+   */
+  private FormatService formatService() throws MojoFailureException {
+    try {
+      return FormatService.create(
+          FormatService.builder()
+              .style(style)
+              .skipSortingImports(skipSortingImports)
+              .formatterRoutes(formatterRoutes)
+              .includes(includes)
+              .excludes(excludes)
+              .filesNamePattern(filesNamePattern)
+              .filesPathPattern(filesPathPattern)
+              .threads(threads)
+              .maxInFlightBytes(maxInFlightBytes)
+              .virtualThreads(virtualThreads)
+              .maxFileSize(maxFileSize)
+              .rewrite(rewritesNonComplyingFiles())
+              .log(formattingLog()),
+          new FormatServiceHooks()
+              .verbose(verbose)
+              .sourceEncoding(sourceEncoding)
+              .onNonComplyingFile(this::handleNonComplyingFile, needsFormattedContent())
+              .listener(this::record)
+              .metrics(formattingMetrics)
+              .cache(cache)
+              .snapshot(snapshot)
+              .store(store)
+              .changedLines(changedLines)
+              .daemon(daemon));
+    } catch (IllegalArgumentException e) {
+      getLog().error(e.getMessage());
+      throw new MojoFailureException(e.getMessage());
+    }
+  }
+
+  /** @return the log of the execution, for the service */
+  FormattingLog formattingLog() {
+    Log log = getLog();
+    return new FormattingLog() {
+      @Override
+      public void debug(String message) {
+        log.debug(message);
+      }
+
+      @Override
+      public void warn(String message) {
+        log.warn(message);
+      }
+
+      @Override
+      public void error(String message, Throwable cause) {
+        log.error(message, cause);
+      }
+    };
+  }
+
+  /**
+   * @param root a source directory
+   * @return the filter selecting the files of the source directory to format
+   */
+  Predicate<Path> sourceFileFilter(Path root) {
+    return service.sourceFileFilter(root);
+  }
+
+  private void awaitFormatting(List<CompletableFuture<FileResult>> pending)
+      throws MojoFailureException {
+    long failures =
+        pending.stream()
+            .map(CompletableFuture::join)
+            .filter(result -> result != null && result.getStatus() == FileResult.Status.FAILED)
+            .count();
+    if (failures > 0) {
+      throw new MojoFailureException(
+          "There where errors when formatting files. Error count: " + failures);
+    }
+  }
+
+  private Set<Path> listChangedFiles() {
+    File workingDirectory = basedir != null ? basedir : sourceDirectory.getParentFile();
+    try {
+      Set<Path> changed = new HashSet<>();
+      for (Path path : GitChangedFiles.since(workingDirectory, ratchetFrom)) {
+        if (Files.exists(path)) {
+          changed.add(path.toRealPath());
+        }
+      }
+      getLog()
+          .info("Only formatting " + changed.size() + " files changed since '" + ratchetFrom + "'");
+      return changed;
+    } catch (IOException e) {
+      getLog()
+          .warn(
+              "Could not list files changed since '"
+                  + ratchetFrom
+                  + "', formatting all files: "
+                  + e.getMessage());
+      return null;
+    }
+  }
+
+  private Map<Path, RangeSet<Integer>> listChangedLines() throws MojoFailureException {
+    String ref = ratchetFrom != null ? ratchetFrom : "HEAD";
+    File workingDirectory = basedir != null ? basedir : sourceDirectory.getParentFile();
+    try {
+      Map<Path, RangeSet<Integer>> changed = new HashMap<>();
+      for (Map.Entry<Path, RangeSet<Integer>> entry :
+          GitChangedFiles.changedLinesSince(workingDirectory, ref).entrySet()) {
+        if (Files.exists(entry.getKey())) {
+          changed.put(entry.getKey().toRealPath(), entry.getValue());
+        }
+      }
+      getLog()
+          .info(
+              "Only formatting the lines changed since '"
+                  + ref
+                  + "' in "
+                  + changed.size()
+                  + " files");
+      return changed;
+    } catch (IOException e) {
+      String message = "Could not list the lines changed since '" + ref + "': " + e.getMessage();
+      getLog().error(message);
+      throw new MojoFailureException(message);
+    }
+  }
+
+  private DaemonClient connectDaemon(JavaFormatterOptions.Style style) {
+    Path stateFile = DaemonProtocol.stateFile(daemonDirectory);
+    try {
+      DaemonClient client = DaemonClient.connect(stateFile, style, skipSortingImports);
+      getLog().debug("Formatting with the daemon described in '" + stateFile + "'");
+      return client;
+    } catch (IOException e) {
+      getLog().info("No formatting daemon is running, formatting in process");
+      return null;
+    }
   }
 
   private JavaFormatterOptions.Style style() throws MojoFailureException {
-    if ("aosp".equalsIgnoreCase(style)) {
-      getLog().debug("Using AOSP style");
-      return JavaFormatterOptions.Style.AOSP;
+    try {
+      JavaFormatterOptions.Style javaStyle = FormatterEngines.javaStyle(style);
+      getLog()
+          .debug(
+              javaStyle == JavaFormatterOptions.Style.AOSP
+                  ? "Using AOSP style"
+                  : "Using Google style");
+      return javaStyle;
+    } catch (IllegalArgumentException e) {
+      getLog().error(e.getMessage());
+      throw new MojoFailureException(e.getMessage());
     }
-    if ("google".equalsIgnoreCase(style)) {
-      getLog().debug("Using Google style");
-      return JavaFormatterOptions.Style.GOOGLE;
+  }
+
+  private Charset charset() throws MojoFailureException {
+    if (encoding == null || encoding.isEmpty()) {
+      getLog().debug("No source encoding is set, reading files as UTF-8");
+      return Charsets.UTF_8;
+    }
+    try {
+      return Charset.forName(encoding);
+    } catch (IllegalArgumentException e) {
+      String message = "Unknown source encoding '" + encoding + "'.";
+      getLog().error(message);
+      throw new MojoFailureException(message);
     }
-    String message = "Unknown style '" + style + "'. Expected 'google' or 'aosp'.";
-    getLog().error(message);
-    throw new MojoFailureException(message);
   }
 
-  private Formatter getFormatter(JavaFormatterOptions.Style style) throws MojoFailureException {
-    return new Formatter(JavaFormatterOptions.builder().style(style).build());
+  private ObjectName registerMetrics() {
+    try {
+      return formattingMetrics.register(artifactId);
+    } catch (JMException e) {
+      getLog().warn("Could not register the formatting metrics with JMX: " + e.getMessage());
+      return null;
+    }
   }
 
-  private FileFilter getFileNameFilter() {
-    if (verbose) {
-      getLog().debug("Filter files on '" + filesNamePattern + "'.");
+  private void unregisterMetrics(ObjectName mbean) {
+    if (mbean == null) {
+      return;
+    }
+    try {
+      FormattingMetrics.unregister(mbean);
+    } catch (JMException e) {
+      getLog().debug("Could not unregister the formatting metrics: " + e.getMessage());
     }
-    return pathname -> pathname.isDirectory() || pathname.getName().matches(filesNamePattern);
   }
 
-  private FileFilter getPathFilter() {
-    if (verbose) {
-      getLog().debug("Filter paths on '" + filesPathPattern + "'.");
+  private void writeMetrics() {
+    Path metricsFile = reportDirectory.toPath().resolve("metrics.prom");
+    try {
+      formattingMetrics.write(metricsFile, artifactId);
+      getLog().info("Wrote formatting metrics to '" + metricsFile + "'");
+    } catch (IOException e) {
+      getLog().warn("Could not write formatting metrics to '" + metricsFile + "'.", e);
     }
-    return pathname -> pathname.isDirectory() || pathname.getPath().matches(filesPathPattern);
   }
 
-  private boolean formatSourceFile(
-      File file, Formatter formatter, JavaFormatterOptions.Style style) {
-    if (file.isDirectory()) {
-      if (verbose) {
-        getLog().debug("File '" + file + "' is a directory. Skipping.");
+  private void reportTimings() {
+    if (slowestFiles <= 0 && timingReport == null) {
+      return;
+    }
+    TimingReport report = TimingReport.of(results);
+    if (slowestFiles > 0) {
+      report.log(getLog(), slowestFiles);
+    }
+    if (timingReport != null) {
+      Path reportFile =
+          reportDirectory.toPath().resolve("timings." + timingReport.toLowerCase(Locale.ROOT));
+      try {
+        report.write(reportFile, timingReport);
+        getLog().info("Wrote timing report to '" + reportFile + "'");
+      } catch (IOException e) {
+        getLog().warn("Could not write timing report to '" + reportFile + "'.", e);
       }
-      return true;
     }
+  }
+
+  /** Identifies the formatter configuration that compliant files are recorded for. */
+  private String configurationSignature(JavaFormatterOptions.Style style) {
+    return FormattingCache.signature(
+        pluginVersion != null ? pluginVersion : getClass().getPackage().getImplementationVersion(),
+        Formatters.version(),
+        style,
+        skipSortingImports,
+        Arrays.toString(formatterRoutes),
+        sourceEncoding.getCharset());
+  }
 
-    if (verbose) {
-      getLog().debug("Formatting '" + file + "'.");
+  private FormattingCache loadCache(JavaFormatterOptions.Style style) {
+    Path cacheFile = cacheDirectory.toPath().resolve("compliant-files.cache");
+    String signature = configurationSignature(style);
+    try {
+      return FormattingCache.load(cacheFile, signature);
+    } catch (IOException e) {
+      getLog().warn("Could not read formatting cache '" + cacheFile + "', ignoring it.", e);
+      return FormattingCache.empty(cacheFile, signature);
     }
+  }
 
-    CharSource source = com.google.common.io.Files.asCharSource(file, Charsets.UTF_8);
+  private SourceSnapshot loadSnapshot(JavaFormatterOptions.Style style) {
+    Path snapshotFile = cacheDirectory.toPath().resolve("compliant-files.snapshot");
+    String signature = configurationSignature(style);
     try {
-      String input = source.read();
-      String formatted = formatter.formatSource(input);
-      formatted = RemoveUnusedImports.removeUnusedImports(formatted);
-      if (!skipSortingImports) {
-        formatted = ImportOrderer.reorderImports(formatted, style);
-      }
-      if (!input.equals(formatted)) {
-        onNonComplyingFile(file, formatted);
-        nonComplyingFiles += 1;
-      }
-      filesProcessed.add(file.getAbsolutePath());
-      if (filesProcessed.size() % 100 == 0) {
-        logNumberOfFilesProcessed();
+      return SourceSnapshot.load(snapshotFile, signature);
+    } catch (IOException e) {
+      getLog().warn("Could not read source snapshot '" + snapshotFile + "', ignoring it.", e);
+      return SourceSnapshot.empty(snapshotFile, signature);
+    }
+  }
+
+  private FormattedContentStore openStore() {
+    String version =
+        (pluginVersion != null ? pluginVersion : getClass().getPackage().getImplementationVersion())
+            + '\0'
+            + Formatters.version();
+    return new FormattedContentStore(sharedCacheDirectory.toPath(), sharedCacheMaxSize, version);
+  }
+
+  private void evictFromStore() {
+    try {
+      int evicted = store.evict();
+      if (evicted > 0) {
+        getLog().debug("Evicted " + evicted + " entries from '" + sharedCacheDirectory + "'.");
       }
-    } catch (FormatterException | IOException e) {
-      getLog().error("Failed to format file '" + file + "'.", e);
-      return false;
+    } catch (IOException e) {
+      getLog().warn("Could not evict entries from '" + sharedCacheDirectory + "'.", e);
+    }
+  }
+
+  private void saveSnapshot() {
+    getLog().debug(snapshot.getHits() + " files were unchanged since they were found compliant.");
+    try {
+      snapshot.save();
+    } catch (IOException e) {
+      getLog().warn("Could not write source snapshot to '" + cacheDirectory + "'.", e);
+    }
+  }
+
+  private void saveCache() {
+    getLog().debug(cache.getHits() + " files were found compliant in the formatting cache.");
+    try {
+      cache.save();
+    } catch (IOException e) {
+      getLog().warn("Could not write formatting cache to '" + cacheDirectory + "'.", e);
+    }
+  }
+
+  /**
+   * Runs a file through the pipeline of the execution, see {@link FormatService}.
+   *
+   * @return a future completed with the outcome of the file, which is also recorded in the results,
+   *     or with null if the run was cancelled before the file was formatted
+   */
+  CompletableFuture<FileResult> formatSourceFile(
+      File file, FormatterEngine engine, FormattingResults moduleResults) {
+    return service.formatFile(file, engine).thenApply(result -> addToModule(moduleResults, result));
+  }
+
+  private FileResult addToModule(FormattingResults moduleResults, FileResult result) {
+    if (result != null && moduleResults != results) {
+      moduleResults.add(result);
+    }
+    return result;
+  }
+
+  private void record(FileResult result, String input, String formatted) {
+    onFileProcessed(result, input, formatted);
+    int recorded = keepsFileResults() ? results.add(result) : results.addCount(result);
+    if (recorded % 100 == 0) {
+      // Other files are still being recorded, so only the position of this one is exact.
+      getLog().info(String.format("Processed %d files so far.", recorded));
     }
-    return true;
   }
 
   private void handleMissingDirectory(String directoryDisplayName, File directory)
@@ -247,22 +814,87 @@ public abstract class AbstractFMT extends AbstractMojo {
   }
 
   protected void logNumberOfFilesProcessed() {
+    FormattedContentStore store = this.store;
+    if (store == null) {
+      getLog().info(summary(results));
+      return;
+    }
     getLog()
         .info(
             String.format(
-                "Processed %d files (%d %s).",
-                filesProcessed.size(), nonComplyingFiles, getProcessingLabel()));
+                "%s Shared cache: %d hits, %d misses.",
+                summary(results), store.getHits(), store.getMisses()));
+  }
+
+  private String summary(FormattingResults results) {
+    String summary =
+        String.format(
+            "Processed %d files (%d %s).",
+            results.getFilesProcessedCount(),
+            results.getNonComplyingFilesCount(),
+            getProcessingLabel());
+    int skipped = results.count(FileResult.Status.SKIPPED);
+    if (skipped > 0) {
+      summary += String.format(" Skipped %d files larger than %d bytes.", skipped, maxFileSize);
+    }
+    return summary;
   }
 
   /**
    * Hook called when the processd file is not compliant with the formatter.
    *
    * @param file the file that is not compliant
-   * @param formatted the corresponding formatted of the file.
+   * @param formatted the corresponding formatted of the file, or null if {@link
+   *     #needsFormattedContent()} returns false.
    * @throws IOException on any
    */
   protected abstract void onNonComplyingFile(File file, String formatted) throws IOException;
 
+  /**
+   * Hands a file that is not formatted to {@link #onNonComplyingFile}.
+   *
+   * @param file the file that is not compliant
+   * @param input the content the formatted content was computed from
+   * @param formatted the formatted content of the file, or null if {@link #needsFormattedContent()}
+   *     returns false
+   * @return what was done to the file, {@link FormatService.Rewrite#UNCHANGED} by default
+   * @throws IOException if the file cannot be handled
+   */
+  FormatService.Rewrite handleNonComplyingFile(File file, String input, String formatted)
+      throws IOException {
+    onNonComplyingFile(file, formatted);
+    return FormatService.Rewrite.UNCHANGED;
+  }
+
+  /**
+   * Whether {@link #onNonComplyingFile} needs the formatted content of non-complying files. When it
+   * does not, files are only checked, which stops at the first difference found.
+   *
+   * @return true by default
+   */
+  protected boolean needsFormattedContent() {
+    return true;
+  }
+
+  /**
+   * Whether {@link #onNonComplyingFile} replaces the file with its formatted content, which makes
+   * it compliant.
+   *
+   * @return false by default
+   */
+  boolean rewritesNonComplyingFiles() {
+    return false;
+  }
+
+  /**
+   * Whether {@link #getResults()} keeps the outcome of every file, or only counts them.
+   *
+   * @return true by default
+   */
+  boolean keepsFileResults() {
+    return true;
+  }
+
   /**
    * Provides the name of the label used when a non-formatted file is found.
    *
@@ -0,0 +1,126 @@
+package com.coveo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Replaces files atomically: content is written to a temporary file in the same directory, which is
+ * then renamed over the target. A crash or a cancelled build leaves either the old or the new file,
+ * never a truncated one.
+ *
+ * <p>Symbolic links are followed, so the file they point to is replaced rather than the link. A
+ * file with several hard links is written in place instead, since renaming over it would detach it
+ * from its other links.
+ */
+final class AtomicFiles {
+
+  /** Writes the content of a file. */
+  interface Content {
+    void writeTo(OutputStream out) throws IOException;
+  }
+
+  private static final FileAttribute<?>[] DEFAULT_PERMISSIONS = new FileAttribute<?>[0];
+  private static final FileAttribute<?>[] OWNER_ONLY_PERMISSIONS = {
+    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))
+  };
+
+  private AtomicFiles() {}
+
+  /**
+   * Replaces the content of a file, keeping its POSIX permissions if it already exists. New files
+   * get the default permissions of the process.
+   *
+   * @param target the file to write
+   * @param content writes the new content
+   * @throws IOException if the file cannot be written
+   */
+  static void write(Path target, Content content) throws IOException {
+    write(target, content, false);
+  }
+
+  /**
+   * Replaces the content of a file, which is only readable and writable by the current user
+   * afterwards.
+   *
+   * @param target the file to write
+   * @param content writes the new content
+   * @throws IOException if the file cannot be written
+   */
+  static void writeOwnerOnly(Path target, Content content) throws IOException {
+    write(target, content, true);
+  }
+
+  private static void write(Path target, Content content, boolean ownerOnly) throws IOException {
+    Path file = realPath(target);
+    if (!ownerOnly && linkCount(file) > 1) {
+      try (OutputStream out = Files.newOutputStream(file)) {
+        content.writeTo(out);
+      }
+      return;
+    }
+    Path directory = file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    boolean posix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+    Path temp =
+        Files.createFile(
+            directory.resolve(
+                "."
+                    + file.getFileName()
+                    + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong())
+                    + ".tmp"),
+            ownerOnly && posix ? OWNER_ONLY_PERMISSIONS : DEFAULT_PERMISSIONS);
+    try {
+      try (OutputStream out = Files.newOutputStream(temp)) {
+        content.writeTo(out);
+      }
+      if (!ownerOnly) {
+        copyPermissions(file, temp);
+      }
+      try {
+        Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temp);
+    }
+  }
+
+  private static Path realPath(Path target) throws IOException {
+    try {
+      return target.toRealPath();
+    } catch (NoSuchFileException e) {
+      return target;
+    }
+  }
+
+  private static int linkCount(Path file) {
+    try {
+      return (Integer) Files.getAttribute(file, "unix:nlink");
+    } catch (UnsupportedOperationException | IllegalArgumentException | IOException e) {
+      // The file does not exist yet, or the file system does not count links.
+      return 1;
+    }
+  }
+
+  private static void copyPermissions(Path from, Path to) throws IOException {
+    if (!Files.exists(from)
+        || Files.getFileAttributeView(from, PosixFileAttributeView.class) == null) {
+      return;
+    }
+    Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(from);
+    Files.setPosixFilePermissions(to, permissions);
+  }
+}
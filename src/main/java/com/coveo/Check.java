@@ -6,8 +6,10 @@ import static java.lang.String.format;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
@@ -28,20 +30,68 @@ public class Check extends AbstractFMT {
   @Parameter(defaultValue = "100", property = "displayLimit")
   private int displayLimit;
 
-  /** List of unformatted files. */
-  private List<String> filesNotFormatted = new ArrayList<String>();
+  /** Formats of the reports to write to the report directory: json, sarif or checkstyle. */
+  @Parameter(property = "fmt.checkReports")
+  private String[] checkReports;
+
+  /**
+   * Stops the check once this many files are non-complying or failed to format, without checking
+   * the remaining files. 0 checks every file.
+   */
+  @Parameter(defaultValue = "0", property = "fmt.failFast")
+  private int failFast;
+
+  private final AtomicInteger violations = new AtomicInteger();
+  private CheckReport report;
+
+  @Override
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    try {
+      super.execute();
+    } finally {
+      closeReport();
+    }
+  }
+
+  /**
+   * Pre Execute action. Validates the report formats and creates the reports.
+   *
+   * @throws MojoFailureException if a report format is unknown
+   */
+  @Override
+  protected void preExecute() throws MojoFailureException {
+    if (checkReports == null || checkReports.length == 0) {
+      return;
+    }
+    for (String format : checkReports) {
+      if (!CheckReport.isSupportedFormat(format)) {
+        String message =
+            "Unknown check report format '"
+                + format
+                + "'. Expected 'json', 'sarif' or 'checkstyle'.";
+        getLog().error(message);
+        throw new MojoFailureException(message);
+      }
+    }
+    try {
+      report = CheckReport.open(getReportDirectory().toPath(), checkReports);
+    } catch (IOException e) {
+      getLog().warn("Could not create check reports in '" + getReportDirectory() + "'.", e);
+    }
+  }
 
   /**
    * Post Execute action. It is called at the end of the execute method. Subclasses can add extra
    * checks.
    *
-   * @param filesProcessed the list of processed files by the formatter
-   * @param nonComplyingFiles the number of files that are not compliant
+   * @param results the outcome of every file processed by the formatter
    * @throws MojoFailureException if there is an exception
    */
   @Override
-  protected void postExecute(List<String> filesProcessed, int nonComplyingFiles)
-      throws MojoFailureException {
+  protected void postExecute(FormattingResults results) throws MojoFailureException {
+    super.postExecute(results);
+    closeReport();
+    int nonComplyingFiles = results.getNonComplyingFilesCount();
     if (nonComplyingFiles > 0) {
       String message = "Found " + nonComplyingFiles + " non-complying files, failing build";
       getLog().error(message);
@@ -51,6 +101,7 @@ public class Check extends AbstractFMT {
 
       // Display first displayLimit files not formatted
       if (displayFiles) {
+        List<String> filesNotFormatted = results.getNonComplyingFiles();
         for (String path :
             filesNotFormatted.subList(0, min(displayLimit, filesNotFormatted.size()))) {
           getLog().error("Non complying file: " + path);
@@ -60,19 +111,46 @@ public class Check extends AbstractFMT {
           getLog().error(format("... and %d more files.", nonComplyingFiles - displayLimit));
         }
       }
+      if (isFormattingCancelled()) {
+        getLog().error("Other files were not checked (failFast is " + failFast + ").");
+      }
       throw new MojoFailureException(message);
     }
   }
 
   /**
-   * Hook called when the processd file is not compliant with the formatter.
+   * Hook called when the processd file is not compliant with the formatter. Non-complying files are
+   * already recorded in the results, so there is nothing to do.
    *
    * @param file the file that is not compliant
    * @param formatted the corresponding formatted of the file.
    */
   @Override
-  protected void onNonComplyingFile(final File file, final String formatted) throws IOException {
-    filesNotFormatted.add(file.getAbsolutePath());
+  protected void onNonComplyingFile(final File file, final String formatted) throws IOException {}
+
+  @Override
+  void onFileProcessed(FileResult result, String input, String formatted) {
+    if (report != null) {
+      report.add(result, input, formatted);
+    }
+    if (failFast > 0
+        && (result.getStatus() == FileResult.Status.NON_COMPLIANT
+            || result.getStatus() == FileResult.Status.FAILED)
+        && violations.incrementAndGet() == failFast) {
+      getLog().info("Found " + failFast + " files to fix, stopping the check (failFast).");
+      cancelFormatting();
+    }
+  }
+
+  /**
+   * Check only needs to know whether files are formatted, unless the reports show how to format
+   * them.
+   *
+   * @return true if reports are written
+   */
+  @Override
+  protected boolean needsFormattedContent() {
+    return report != null;
   }
 
   /**
@@ -84,4 +162,19 @@ public class Check extends AbstractFMT {
   protected String getProcessingLabel() {
     return "non-complying";
   }
+
+  private void closeReport() {
+    if (report == null) {
+      return;
+    }
+    try {
+      for (Path file : report.close()) {
+        getLog().info("Wrote check report to '" + file + "'");
+      }
+    } catch (IOException e) {
+      getLog().warn("Could not write check reports to '" + getReportDirectory() + "'.", e);
+    } finally {
+      report = null;
+    }
+  }
 }
@@ -0,0 +1,272 @@
+package com.coveo;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Machine-readable reports of a check: SARIF and Checkstyle XML for code review tools, and JSON
+ * with the status and timings of every file. Each non-complying file is reported with the unified
+ * diff hunks that would format it.
+ *
+ * <p>Files are appended to the reports as they complete and nothing is kept once written, so the
+ * memory used does not grow with the number of files or violations.
+ */
+final class CheckReport {
+
+  static final String JSON = "json";
+  static final String SARIF = "sarif";
+  static final String CHECKSTYLE = "checkstyle";
+
+  private static final int CONTEXT_LINES = 3;
+  private static final String RULE_ID = "google-java-format";
+  private static final String MESSAGE = "Formatting differs from google-java-format";
+
+  private final List<Path> files = new ArrayList<>();
+  private Writer json;
+  private Writer sarif;
+  private Writer checkstyle;
+  private boolean firstFile = true;
+  private boolean firstViolation = true;
+  private IOException failure;
+
+  private CheckReport() {}
+
+  /**
+   * @param format a report format
+   * @return true if the format is supported
+   */
+  static boolean isSupportedFormat(String format) {
+    String name = format.trim().toLowerCase(Locale.ROOT);
+    return JSON.equals(name) || SARIF.equals(name) || CHECKSTYLE.equals(name);
+  }
+
+  /**
+   * Creates the report files and writes their headers.
+   *
+   * @param directory the directory to write the reports to
+   * @param formats the formats to write, each supported by {@link #isSupportedFormat(String)}
+   * @return the report
+   * @throws IOException if a report cannot be created
+   */
+  static CheckReport open(Path directory, String[] formats) throws IOException {
+    CheckReport report = new CheckReport();
+    try {
+      Files.createDirectories(directory);
+      for (String format : formats) {
+        switch (format.trim().toLowerCase(Locale.ROOT)) {
+          case JSON:
+            report.json = report.create(directory.resolve("check.json"));
+            report.json.write("{\n  \"files\": [");
+            break;
+          case SARIF:
+            report.sarif = report.create(directory.resolve("check.sarif"));
+            report.sarif.write(
+                "{\n  \"version\": \"2.1.0\",\n"
+                    + "  \"$schema\": \"https://json.schemastore.org/sarif-2.1.0.json\",\n"
+                    + "  \"runs\": [{\n    \"tool\": {\"driver\": {"
+                    + "\"name\": \"fmt-maven-plugin\", "
+                    + "\"informationUri\": \"https://github.com/coveooss/fmt-maven-plugin\", "
+                    + "\"rules\": [{\"id\": "
+                    + Json.quote(RULE_ID)
+                    + ", \"shortDescription\": {\"text\": "
+                    + Json.quote(MESSAGE)
+                    + "}}]}},\n    \"results\": [");
+            break;
+          case CHECKSTYLE:
+            report.checkstyle = report.create(directory.resolve("checkstyle.xml"));
+            report.checkstyle.write(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<checkstyle version=\"8.0\">\n");
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown check report format '" + format + "'");
+        }
+      }
+    } catch (IOException e) {
+      report.closeQuietly();
+      throw e;
+    }
+    return report;
+  }
+
+  /**
+   * Appends a file to the reports. Errors are kept and thrown by {@link #close()}, so that a report
+   * that cannot be written does not fail the files being checked.
+   *
+   * @param result the outcome of the file
+   * @param input the content of the file, or null if it was not read
+   * @param formatted the formatted content, or null if the file is compliant or was not formatted
+   */
+  void add(FileResult result, String input, String formatted) {
+    List<LineDiff.Hunk> hunks =
+        input != null && formatted != null
+            ? LineDiff.diff(input, formatted, CONTEXT_LINES)
+            : Collections.<LineDiff.Hunk>emptyList();
+    synchronized (this) {
+      if (failure != null) {
+        return;
+      }
+      try {
+        if (json != null) {
+          writeJson(result, hunks);
+        }
+        if (sarif != null) {
+          writeSarif(result, hunks);
+        }
+        if (checkstyle != null) {
+          writeCheckstyle(result, hunks);
+        }
+      } catch (IOException e) {
+        failure = e;
+      }
+    }
+  }
+
+  /**
+   * Writes the end of the reports and closes them.
+   *
+   * @return the report files
+   * @throws IOException if a report could not be written
+   */
+  synchronized List<Path> close() throws IOException {
+    try {
+      if (failure == null) {
+        if (json != null) {
+          json.write("\n  ]\n}\n");
+        }
+        if (sarif != null) {
+          sarif.write("\n    ]\n  }]\n}\n");
+        }
+        if (checkstyle != null) {
+          checkstyle.write("</checkstyle>\n");
+        }
+      }
+    } catch (IOException e) {
+      failure = e;
+    } finally {
+      closeQuietly();
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return files;
+  }
+
+  private Writer create(Path file) throws IOException {
+    files.add(file);
+    return new BufferedWriter(
+        new OutputStreamWriter(Files.newOutputStream(file), StandardCharsets.UTF_8));
+  }
+
+  private void writeJson(FileResult result, List<LineDiff.Hunk> hunks) throws IOException {
+    json.write(firstFile ? "\n" : ",\n");
+    firstFile = false;
+    json.write("    {\"path\": " + Json.quote(result.getFile().getAbsolutePath()));
+    json.write(", \"status\": " + Json.quote(result.getStatus().name()));
+    json.write(", \"durationNanos\": " + result.getDurationNanos());
+    json.write(", \"phaseNanos\": {");
+    String separator = "";
+    for (FileResult.Phase phase : FileResult.Phase.values()) {
+      json.write(separator + Json.quote(phase.name()) + ": " + result.getPhaseNanos(phase));
+      separator = ", ";
+    }
+    json.write("}, \"hunks\": [");
+    separator = "";
+    for (LineDiff.Hunk hunk : hunks) {
+      json.write(separator);
+      json.write("{\"line\": " + hunk.line + ", \"endLine\": " + hunk.endLine);
+      json.write(", \"diff\": " + Json.quote(hunk.text) + "}");
+      separator = ", ";
+    }
+    json.write("]}");
+  }
+
+  private void writeSarif(FileResult result, List<LineDiff.Hunk> hunks) throws IOException {
+    String uri = Json.quote(result.getFile().toPath().toAbsolutePath().toUri().toString());
+    for (LineDiff.Hunk hunk : hunks) {
+      sarif.write(firstViolation ? "\n" : ",\n");
+      firstViolation = false;
+      sarif.write("      {\"ruleId\": " + Json.quote(RULE_ID) + ", \"level\": \"error\"");
+      sarif.write(", \"message\": {\"text\": " + Json.quote(message(hunk)) + "}");
+      sarif.write(", \"locations\": [{\"physicalLocation\": {\"artifactLocation\": {\"uri\": ");
+      sarif.write(uri + "}, \"region\": {\"startLine\": " + hunk.line);
+      sarif.write(", \"endLine\": " + hunk.endLine + "}}}]}");
+    }
+  }
+
+  private void writeCheckstyle(FileResult result, List<LineDiff.Hunk> hunks) throws IOException {
+    if (hunks.isEmpty()) {
+      return;
+    }
+    checkstyle.write("  <file name=\"" + xml(result.getFile().getAbsolutePath()) + "\">\n");
+    for (LineDiff.Hunk hunk : hunks) {
+      checkstyle.write("    <error line=\"" + hunk.line + "\" column=\"1\" severity=\"error\"");
+      checkstyle.write(" message=\"" + xml(message(hunk)) + "\"");
+      checkstyle.write(" source=\"com.coveo.fmt." + RULE_ID + "\"/>\n");
+    }
+    checkstyle.write("  </file>\n");
+  }
+
+  private static String message(LineDiff.Hunk hunk) {
+    return MESSAGE + ":\n" + hunk.text;
+  }
+
+  private static String xml(String value) {
+    StringBuilder escaped = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      switch (c) {
+        case '<':
+          escaped.append("&lt;");
+          break;
+        case '>':
+          escaped.append("&gt;");
+          break;
+        case '&':
+          escaped.append("&amp;");
+          break;
+        case '"':
+          escaped.append("&quot;");
+          break;
+        case '\n':
+          escaped.append("&#10;");
+          break;
+        case '\r':
+          escaped.append("&#13;");
+          break;
+        case '\t':
+          escaped.append("&#9;");
+          break;
+        default:
+          // Other control characters are not allowed in XML 1.0.
+          escaped.append(c < 0x20 ? '?' : c);
+      }
+    }
+    return escaped.toString();
+  }
+
+  private void closeQuietly() {
+    for (Writer writer : new Writer[] {json, sarif, checkstyle}) {
+      if (writer != null) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = e;
+          }
+        }
+      }
+    }
+    json = null;
+    sarif = null;
+    checkstyle = null;
+  }
+}
@@ -0,0 +1,225 @@
+package com.coveo;
+
+import com.google.googlejavaformat.java.JavaFormatterOptions;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Sends files to a running {@link FormattingDaemon}. Each formatting thread borrows a connection of
+ * its own, so files are formatted by the daemon as concurrently as they would be in process.
+ */
+final class DaemonClient implements AutoCloseable {
+
+  private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+  /** How long an answer of the daemon may take, enough to format the largest sources. */
+  private static final int READ_TIMEOUT_MILLIS = 60_000;
+
+  private final int port;
+  private final String token;
+  private final int readTimeoutMillis;
+  private final JavaFormatterOptions.Style style;
+  private final boolean skipSortingImports;
+  private final ConcurrentLinkedQueue<Connection> idle = new ConcurrentLinkedQueue<>();
+  private volatile boolean connected = true;
+
+  private DaemonClient(
+      int port,
+      String token,
+      int readTimeoutMillis,
+      JavaFormatterOptions.Style style,
+      boolean skipSortingImports) {
+    this.port = port;
+    this.token = token;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.style = style;
+    this.skipSortingImports = skipSortingImports;
+  }
+
+  /**
+   * Connects to the daemon described by the given state file.
+   *
+   * @param stateFile the state file written by the daemon
+   * @param style the style to format with
+   * @param skipSortingImports whether imports are left in their order
+   * @return the client
+   * @throws IOException if no daemon is running, it refuses the connection or does not answer
+   */
+  static DaemonClient connect(
+      Path stateFile, JavaFormatterOptions.Style style, boolean skipSortingImports)
+      throws IOException {
+    return connect(stateFile, READ_TIMEOUT_MILLIS, style, skipSortingImports);
+  }
+
+  /**
+   * Connects to the daemon described by the given state file.
+   *
+   * @param stateFile the state file written by the daemon
+   * @param readTimeoutMillis how long an answer of the daemon may take before the client gives up
+   *     with a {@link java.net.SocketTimeoutException}
+   * @param style the style to format with
+   * @param skipSortingImports whether imports are left in their order
+   * @return the client
+   * @throws IOException if no daemon is running, it refuses the connection or does not answer
+   */
+  static DaemonClient connect(
+      Path stateFile,
+      int readTimeoutMillis,
+      JavaFormatterOptions.Style style,
+      boolean skipSortingImports)
+      throws IOException {
+    Properties state = DaemonProtocol.readState(stateFile);
+    DaemonClient client;
+    try {
+      client =
+          new DaemonClient(
+              Integer.parseInt(state.getProperty(DaemonProtocol.PORT)),
+              state.getProperty(DaemonProtocol.TOKEN),
+              readTimeoutMillis,
+              style,
+              skipSortingImports);
+    } catch (NumberFormatException e) {
+      throw new IOException("Invalid daemon state file '" + stateFile + "'", e);
+    }
+    client.idle.add(client.open());
+    return client;
+  }
+
+  /**
+   * Asks the daemon described by the given state file to stop.
+   *
+   * @param stateFile the state file written by the daemon
+   * @throws IOException if no daemon is running
+   */
+  static void stop(Path stateFile) throws IOException {
+    try (DaemonClient client = connect(stateFile, JavaFormatterOptions.Style.GOOGLE, false)) {
+      Connection connection = client.idle.poll();
+      connection.out.writeByte(DaemonProtocol.STOP);
+      connection.out.flush();
+      connection.in.readByte();
+      connection.close();
+    }
+  }
+
+  /** @return false once the daemon stopped answering */
+  boolean isConnected() {
+    return connected;
+  }
+
+  /**
+   * Stops using the daemon.
+   *
+   * @return true if the daemon was in use until now
+   */
+  boolean disconnect() {
+    boolean wasConnected = connected;
+    connected = false;
+    close();
+    return wasConnected;
+  }
+
+  /**
+   * Formats or checks a source through the daemon, setting the outcome on the source like the
+   * in-process pipeline does.
+   *
+   * @param source the source, already read
+   * @param needsFormattedContent whether the formatted content of a non-complying file is needed
+   * @throws IOException if the daemon cannot be reached or does not answer in time
+   * @throws FormatterEngineException if the daemon could not format the source
+   */
+  void format(SourceFile source, boolean needsFormattedContent)
+      throws IOException, FormatterEngineException {
+    Connection connection = idle.poll();
+    if (connection == null) {
+      connection = open();
+    }
+    try {
+      connection.out.writeByte(
+          needsFormattedContent ? DaemonProtocol.FORMAT : DaemonProtocol.CHECK);
+      connection.out.writeUTF(source.file.getPath());
+      DaemonProtocol.writeText(connection.out, source.input);
+      connection.out.flush();
+      byte outcome = connection.in.readByte();
+      if (outcome == DaemonProtocol.FAILED) {
+        String message = DaemonProtocol.readText(connection.in);
+        idle.add(connection);
+        throw new FormatterEngineException(message);
+      }
+      source.compliant = outcome == DaemonProtocol.COMPLIANT;
+      if (!source.compliant && needsFormattedContent) {
+        source.formatted = DaemonProtocol.readText(connection.in);
+      }
+      source.timer.add(DaemonProtocol.readNanos(connection.in));
+    } catch (IOException e) {
+      connection.close();
+      throw e;
+    }
+    if (connected) {
+      idle.add(connection);
+    } else {
+      connection.close();
+    }
+  }
+
+  @Override
+  public void close() {
+    Connection connection;
+    while ((connection = idle.poll()) != null) {
+      connection.close();
+    }
+  }
+
+  private Connection open() throws IOException {
+    Socket socket = new Socket();
+    try {
+      socket.setTcpNoDelay(true);
+      // Files are formatted in process once the daemon stalls.
+      socket.setSoTimeout(readTimeoutMillis);
+      socket.connect(
+          new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+      Connection connection = new Connection(socket);
+      connection.out.writeUTF(token);
+      connection.out.writeUTF(DaemonProtocol.version());
+      connection.out.writeUTF(style.name());
+      connection.out.writeBoolean(skipSortingImports);
+      connection.out.flush();
+      if (connection.in.readByte() != DaemonProtocol.ACCEPTED) {
+        throw new IOException("The formatting daemon refused the connection");
+      }
+      return connection;
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+  }
+
+  private static final class Connection {
+
+    final Socket socket;
+    final DataInputStream in;
+    final DataOutputStream out;
+
+    Connection(Socket socket) throws IOException {
+      this.socket = socket;
+      this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    void close() {
+      try {
+        socket.close();
+      } catch (IOException e) {
+        // Nothing left to release.
+      }
+    }
+  }
+}
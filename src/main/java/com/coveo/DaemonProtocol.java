@@ -0,0 +1,98 @@
+package com.coveo;
+
+import com.google.common.base.Charsets;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+/**
+ * Wire format spoken between {@link DaemonClient} and {@link FormattingDaemon} over a loopback
+ * socket.
+ *
+ * <p>A connection starts with a handshake: the client sends the token read from the state file, the
+ * daemon version, the style and whether imports are sorted, and the daemon answers {@link
+ * #ACCEPTED} or {@link #REJECTED}. The client then sends any number of requests, each a command
+ * followed by the path and content of a file, and the daemon answers each with an outcome, the
+ * formatted content when it was requested and differs, and the time spent in each phase.
+ *
+ * <p>The daemon writes its port and token to a state file readable only by the current user, and
+ * only accepts connections presenting that token.
+ */
+final class DaemonProtocol {
+
+  static final byte ACCEPTED = 1;
+  static final byte REJECTED = 2;
+
+  static final byte FORMAT = 1;
+  static final byte CHECK = 2;
+  static final byte STOP = 3;
+
+  static final byte COMPLIANT = 1;
+  static final byte NOT_COMPLIANT = 2;
+  static final byte FAILED = 3;
+  static final byte STOPPING = 4;
+
+  static final String PORT = "port";
+  static final String TOKEN = "token";
+
+  private DaemonProtocol() {}
+
+  /**
+   * Identifies the plugin and google-java-format releases, so that a daemon is only used by the
+   * plugin release that started it.
+   *
+   * @return the version of the daemon
+   */
+  static String version() {
+    return FormattingCache.signature(
+        Formatters.versionOf(FormattingDaemon.class), Formatters.version());
+  }
+
+  /**
+   * @param directory the directory holding the state of the daemons
+   * @return the state file of the daemon of this plugin release
+   */
+  static Path stateFile(File directory) {
+    return directory.toPath().resolve("daemon-" + version().substring(0, 12) + ".properties");
+  }
+
+  static Properties readState(Path stateFile) throws IOException {
+    Properties state = new Properties();
+    try (InputStream in = Files.newInputStream(stateFile)) {
+      state.load(in);
+    }
+    return state;
+  }
+
+  static void writeText(DataOutputStream out, String text) throws IOException {
+    byte[] bytes = text.getBytes(Charsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readText(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  static void writeNanos(DataOutputStream out, long[] nanos) throws IOException {
+    out.writeInt(nanos.length);
+    for (long value : nanos) {
+      out.writeLong(value);
+    }
+  }
+
+  static long[] readNanos(DataInputStream in) throws IOException {
+    long[] nanos = new long[in.readInt()];
+    for (int i = 0; i < nanos.length; i++) {
+      nanos[i] = in.readLong();
+    }
+    return nanos;
+  }
+}
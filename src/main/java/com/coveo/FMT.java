@@ -1,8 +1,5 @@
 package com.coveo;
 
-import com.google.common.base.Charsets;
-import com.google.common.io.CharSink;
-import com.google.common.io.Files;
 import java.io.File;
 import java.io.IOException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
@@ -18,15 +15,31 @@ import org.apache.maven.plugins.annotations.Mojo;
 public class FMT extends AbstractFMT {
 
   /**
-   * Hook called when the processd file is not compliant with the formatter.
+   * Hook called when the processd file is not compliant with the formatter. The file is replaced
+   * atomically with the formatted content in the source encoding, keeping its permissions and byte
+   * order mark, and is left untouched if its bytes would not change.
+   *
+   * <p>The goal itself goes through {@link #handleNonComplyingFile}, which also leaves the file
+   * untouched if it changed since it was read.
    *
    * @param file the file that is not compliant
    * @param formatted the corresponding formatted of the file.
    */
   @Override
   protected void onNonComplyingFile(File file, String formatted) throws IOException {
-    CharSink sink = Files.asCharSink(file, Charsets.UTF_8);
-    sink.write(formatted);
+    FormatService.rewrite(file.toPath(), null, formatted, getSourceEncoding(), formattingLog());
+  }
+
+  @Override
+  FormatService.Rewrite handleNonComplyingFile(File file, String input, String formatted)
+      throws IOException {
+    return FormatService.rewrite(
+        file.toPath(), input, formatted, getSourceEncoding(), formattingLog());
+  }
+
+  @Override
+  boolean rewritesNonComplyingFiles() {
+    return true;
   }
 
   /**
@@ -0,0 +1,23 @@
+package com.coveo;
+
+import java.util.List;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * FMT mojo that formats the sources of every module of the reactor in a single pass, sharing one
+ * formatter and one thread pool between modules.
+ */
+@Mojo(name = "format-aggregate", aggregator = true, threadSafe = true)
+public class FMTAggregate extends FMT {
+
+  @Parameter(defaultValue = "${reactorProjects}", readonly = true, required = true)
+  private List<MavenProject> reactorProjects;
+
+  @Override
+  List<ModuleSources> collectModules() throws MojoFailureException {
+    return ReactorModules.collect(this, reactorProjects, "format");
+  }
+}
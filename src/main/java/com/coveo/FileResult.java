@@ -0,0 +1,108 @@
+package com.coveo;
+
+import java.io.File;
+
+/** Outcome of running a single file through the formatter. */
+public final class FileResult {
+
+  /** What happened to a file. */
+  public enum Status {
+    /** The file was already formatted. */
+    COMPLIANT,
+    /** The file was not formatted and was handed to the mojo. */
+    NON_COMPLIANT,
+    /** The file could not be read, formatted or written. */
+    FAILED,
+    /** The file was larger than the maximum file size and was left untouched. */
+    SKIPPED
+  }
+
+  /** A step of the processing of a file. */
+  public enum Phase {
+    READ("read"),
+    FORMAT("format"),
+    REMOVE_UNUSED_IMPORTS("remove unused imports"),
+    ORDER_IMPORTS("order imports"),
+    WRITE("write");
+
+    private final String label;
+
+    Phase(String label) {
+      this.label = label;
+    }
+
+    /** @return the name of the phase, in lower case */
+    public String getLabel() {
+      return label;
+    }
+  }
+
+  private final File file;
+  private final Status status;
+  private final long durationNanos;
+  private final long inputBytes;
+  private final long outputBytes;
+  private final boolean written;
+  private final long[] phaseNanos;
+
+  FileResult(
+      File file,
+      Status status,
+      long durationNanos,
+      long inputBytes,
+      long outputBytes,
+      boolean written,
+      long[] phaseNanos) {
+    this.file = file;
+    this.status = status;
+    this.durationNanos = durationNanos;
+    this.inputBytes = inputBytes;
+    this.outputBytes = outputBytes;
+    this.written = written;
+    this.phaseNanos = phaseNanos;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the time spent reading, formatting and handling the file, in nanoseconds, not counting
+   *     the time it waited for a thread
+   */
+  public long getDurationNanos() {
+    return durationNanos;
+  }
+
+  /**
+   * @param phase a phase
+   * @return the time spent in the given phase, in nanoseconds, or 0 if the phase did not run
+   */
+  public long getPhaseNanos(Phase phase) {
+    return phaseNanos[phase.ordinal()];
+  }
+
+  /** @return the size of the file before formatting, in bytes */
+  public long getInputBytes() {
+    return inputBytes;
+  }
+
+  /** @return the size of the formatted file, in bytes */
+  public long getOutputBytes() {
+    return outputBytes;
+  }
+
+  /** @return true if the formatted content was written to the file */
+  public boolean isWritten() {
+    return written;
+  }
+
+  @Override
+  public String toString() {
+    return file + ": " + status;
+  }
+}
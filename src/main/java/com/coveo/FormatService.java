@@ -0,0 +1,827 @@
+package com.coveo;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.RangeSet;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Bytes;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Formats source files without Maven, with the pipeline of the <code>format</code> and <code>check
+ * </code> mojos, which delegate to it: files are read on an I/O pool, formatted on a pool of
+ * formatting threads, then rewritten or only checked.
+ *
+ * <p>A service holds its thread pools and its formatters, warmed up by the files they format, until
+ * it is closed. It is safe to share between threads, so that a build server or an IDE can keep a
+ * single instance for any number of requests. Submitting files blocks while the files in flight
+ * exceed the memory budget of the service.
+ *
+ * <pre>
+ * try (FormatService service = FormatService.builder().style("aosp").rewrite(true).build()) {
+ *   FormattingResults results = service.formatBatch(roots).join();
+ * }
+ * </pre>
+ */
+public final class FormatService implements AutoCloseable {
+
+  private static final byte[] UTF_8_BYTE_ORDER_MARK = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+  /** What handling a file that is not formatted did to it. */
+  enum Rewrite {
+    /** The file was replaced with its formatted content. */
+    WRITTEN,
+    /**
+     * The file was left as it is, since it already has the bytes of its formatted content or is
+     * only checked.
+     */
+    UNCHANGED,
+    /** The file changed since it was read, and was left as it is rather than losing the change. */
+    MODIFIED
+  }
+
+  /** Configuration of a {@link FormatService}. */
+  public static final class Builder {
+
+    private String style = "google";
+    private boolean skipSortingImports;
+    private FormatterRoute[] formatterRoutes;
+    private String[] includes;
+    private String[] excludes;
+    private String filesNamePattern = ".*\\.java";
+    private String filesPathPattern = ".*";
+    private Charset encoding = Charsets.UTF_8;
+    private int threads;
+    private long maxInFlightBytes;
+    private boolean virtualThreads = true;
+    private long maxFileSize;
+    private boolean rewrite;
+    private FormattingLog log;
+
+    private Builder() {}
+
+    /**
+     * @param style the style of Java sources, <code>google</code> (the default) or <code>aosp
+     *     </code>
+     * @return this builder
+     */
+    public Builder style(String style) {
+      this.style = style;
+      return this;
+    }
+
+    /**
+     * @param skipSortingImports whether imports are left in their order
+     * @return this builder
+     */
+    public Builder skipSortingImports(boolean skipSortingImports) {
+      this.skipSortingImports = skipSortingImports;
+      return this;
+    }
+
+    /**
+     * @param formatterRoutes the engines of the files matching a pattern, which are formatted even
+     *     if they are not Java sources
+     * @return this builder
+     */
+    public Builder formatterRoutes(FormatterRoute... formatterRoutes) {
+      this.formatterRoutes = formatterRoutes;
+      return this;
+    }
+
+    /**
+     * @param includes the glob or <code>regex:</code> patterns of the paths to format, relative to
+     *     their source directory, or null for every path
+     * @return this builder
+     */
+    public Builder includes(String... includes) {
+      this.includes = includes;
+      return this;
+    }
+
+    /**
+     * @param excludes the glob or <code>regex:</code> patterns of the paths not to format, relative
+     *     to their source directory
+     * @return this builder
+     */
+    public Builder excludes(String... excludes) {
+      this.excludes = excludes;
+      return this;
+    }
+
+    /**
+     * @param filesNamePattern the regular expression the names of Java sources match, <code>
+     *     .*\.java</code> by default
+     * @return this builder
+     */
+    public Builder filesNamePattern(String filesNamePattern) {
+      this.filesNamePattern = filesNamePattern;
+      return this;
+    }
+
+    /**
+     * @param filesPathPattern the regular expression the paths of Java sources match
+     * @return this builder
+     */
+    public Builder filesPathPattern(String filesPathPattern) {
+      this.filesPathPattern = filesPathPattern;
+      return this;
+    }
+
+    /**
+     * @param encoding the encoding of the source files, UTF-8 by default
+     * @return this builder
+     */
+    public Builder encoding(Charset encoding) {
+      this.encoding = encoding;
+      return this;
+    }
+
+    /**
+     * @param threads the number of formatting threads, or 0 (the default) for one per available
+     *     processor
+     * @return this builder
+     */
+    public Builder threads(int threads) {
+      this.threads = threads;
+      return this;
+    }
+
+    /**
+     * @param maxInFlightBytes the total size of the files processed at once, or 0 (the default) to
+     *     derive it from the maximum heap size
+     * @return this builder
+     */
+    public Builder maxInFlightBytes(long maxInFlightBytes) {
+      this.maxInFlightBytes = maxInFlightBytes;
+      return this;
+    }
+
+    /**
+     * @param virtualThreads whether to read and write files on virtual threads on Java 21 and
+     *     later, true by default
+     * @return this builder
+     */
+    public Builder virtualThreads(boolean virtualThreads) {
+      this.virtualThreads = virtualThreads;
+      return this;
+    }
+
+    /**
+     * @param maxFileSize the size in bytes above which files are skipped, or 0 (the default) for no
+     *     limit
+     * @return this builder
+     */
+    public Builder maxFileSize(long maxFileSize) {
+      this.maxFileSize = maxFileSize;
+      return this;
+    }
+
+    /**
+     * @param rewrite whether files that are not formatted are replaced with their formatted
+     *     content, or only reported, which is the default
+     * @return this builder
+     */
+    public Builder rewrite(boolean rewrite) {
+      this.rewrite = rewrite;
+      return this;
+    }
+
+    /**
+     * @param log where warnings and failures are logged, the <code>com.coveo.FormatService</code>
+     *     logger of {@link java.util.logging} by default
+     * @return this builder
+     */
+    public Builder log(FormattingLog log) {
+      this.log = log;
+      return this;
+    }
+
+    /**
+     * Resolves the engines and starts the thread pools.
+     *
+     * @return the service
+     * @throws IllegalArgumentException if the style, a route or its engine is unknown
+     */
+    public FormatService build() {
+      return new FormatService(this, new FormatServiceHooks());
+    }
+  }
+
+  private final FormattingLog log;
+  private final boolean verbose;
+  private final FormatterRouter router;
+  private final String[] includes;
+  private final String[] excludes;
+  private final Pattern filesNamePattern;
+  private final Pattern filesPathPattern;
+  private final SourceEncoding sourceEncoding;
+  private final long maxFileSize;
+  private final FormatServiceHooks.NonComplyingFileHandler nonComplyingFileHandler;
+  private final boolean rewrites;
+  private final boolean needsFormattedContent;
+  private final FormatServiceHooks.FileListener listener;
+  private final FormattingMetrics metrics;
+  private final FormattingCache cache;
+  private final SourceSnapshot snapshot;
+  private final FormattedContentStore store;
+  private final Map<Path, RangeSet<Integer>> changedLines;
+  private final DaemonClient daemon;
+  private final FormattingExecutors executors;
+  private volatile boolean cancelled;
+
+  private FormatService(Builder builder, FormatServiceHooks hooks) {
+    log =
+        builder.log != null
+            ? builder.log
+            : FormattingLog.of(Logger.getLogger(FormatService.class.getName()));
+    verbose = hooks.verbose;
+    router =
+        FormatterRouter.of(
+            builder.formatterRoutes,
+            FormatterEngines.javaFormatter(
+                FormatterEngines.javaStyle(builder.style), builder.skipSortingImports),
+            builder.style,
+            builder.skipSortingImports);
+    includes = builder.includes;
+    excludes = builder.excludes;
+    filesNamePattern = Pattern.compile(builder.filesNamePattern);
+    filesPathPattern = Pattern.compile(builder.filesPathPattern);
+    sourceEncoding =
+        hooks.sourceEncoding != null
+            ? hooks.sourceEncoding
+            : new SourceEncoding(builder.encoding, !builder.rewrite);
+    maxFileSize = builder.maxFileSize;
+    rewrites = builder.rewrite;
+    if (hooks.nonComplyingFileHandler != null) {
+      nonComplyingFileHandler = hooks.nonComplyingFileHandler;
+      needsFormattedContent = hooks.needsFormattedContent;
+    } else if (rewrites) {
+      nonComplyingFileHandler =
+          (file, input, formatted) -> rewrite(file.toPath(), input, formatted, sourceEncoding, log);
+      needsFormattedContent = true;
+    } else {
+      nonComplyingFileHandler = (file, input, formatted) -> Rewrite.UNCHANGED;
+      needsFormattedContent = false;
+    }
+    listener = hooks.listener;
+    metrics = hooks.metrics;
+    cache = hooks.cache;
+    snapshot = hooks.snapshot;
+    store = hooks.store;
+    changedLines = hooks.changedLines;
+    daemon = hooks.daemon;
+    executors =
+        new FormattingExecutors(builder.threads, builder.maxInFlightBytes, builder.virtualThreads);
+  }
+
+  /** @return a builder with the default configuration of the mojos */
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Creates a service with the hooks of a mojo execution, which the public builder does not expose.
+   *
+   * @param builder the public configuration of the service
+   * @param hooks what the execution plugs into the service
+   * @return the service
+   * @throws IllegalArgumentException if the style, a route or its engine is unknown
+   */
+  static FormatService create(Builder builder, FormatServiceHooks hooks) {
+    return new FormatService(builder, hooks);
+  }
+
+  /**
+   * Formats the given files of a source directory. Files that are not selected by the filters of
+   * the service, or that are not regular files, are ignored.
+   *
+   * @param root the source directory, the paths of the files are matched relative to
+   * @param files the files
+   * @return the outcome of each selected file
+   */
+  public List<CompletableFuture<FileResult>> formatFiles(Path root, Collection<Path> files) {
+    Predicate<Path> filter = sourceFileFilter(root);
+    List<CompletableFuture<FileResult>> pending = new ArrayList<>();
+    for (Path file : files) {
+      if (cancelled) {
+        break;
+      }
+      BasicFileAttributes attributes = attributesOf(file.toFile());
+      if (attributes != null && attributes.isRegularFile() && filter.test(file)) {
+        pending.add(formatFile(file.toFile(), router.engineFor(root.relativize(file)), attributes));
+      }
+    }
+    return pending;
+  }
+
+  /**
+   * Formats the files of a source directory selected by the filters of the service. Formatting
+   * starts while the directory is walked.
+   *
+   * @param root the source directory
+   * @return the outcome of each selected file, or an empty list if the directory does not exist
+   * @throws IOException if the directory cannot be walked
+   */
+  public List<CompletableFuture<FileResult>> formatDirectory(Path root) throws IOException {
+    if (!Files.isDirectory(root)) {
+      return Collections.emptyList();
+    }
+    SourcePathFilter sourcePathFilter = SourcePathFilter.of(includes, excludes);
+    List<CompletableFuture<FileResult>> pending = new ArrayList<>();
+    BiConsumer<Path, BasicFileAttributes> submit =
+        (path, attributes) ->
+            pending.add(
+                formatFile(path.toFile(), router.engineFor(root.relativize(path)), attributes));
+    Files.walkFileTree(
+        root,
+        new SourceFileVisitor(
+            root,
+            dir -> sourcePathFilter.acceptsDirectory(root.relativize(dir)),
+            sourceFileFilter(root),
+            submit,
+            () -> cancelled));
+    return pending;
+  }
+
+  /**
+   * Formats the files of several source directories as a single batch.
+   *
+   * @param roots the source directories
+   * @return the outcome of every file, once all of them are processed
+   * @throws IOException if a directory cannot be walked
+   */
+  public CompletableFuture<FormattingResults> formatBatch(Collection<Path> roots)
+      throws IOException {
+    FormattingResults results = new FormattingResults();
+    List<CompletableFuture<FileResult>> pending = new ArrayList<>();
+    for (Path root : roots) {
+      for (CompletableFuture<FileResult> file : formatDirectory(root)) {
+        pending.add(
+            file.thenApply(
+                result -> {
+                  if (result != null) {
+                    results.add(result);
+                  }
+                  return result;
+                }));
+      }
+    }
+    return CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0]))
+        .thenApply(done -> results);
+  }
+
+  /**
+   * Formats a content that is not read from disk, such as the buffer of an editor. The stream is
+   * read to its end in the encoding of the service, but not closed. Like the files of a batch, the
+   * call blocks while the contents in flight use up the memory budget of the service.
+   *
+   * @param path the path of the content relative to its source directory, which picks its engine
+   * @param content the content to format
+   * @return the formatted content, which is the content itself if it is already formatted, or a
+   *     future failed with the reason the content cannot be formatted
+   */
+  public CompletableFuture<String> format(Path path, InputStream content) {
+    FormatterEngine engine = router.engineFor(path);
+    byte[] bytes;
+    try {
+      // Read here, since its size is needed to take a share of the budget.
+      bytes = ByteStreams.toByteArray(content);
+    } catch (IOException e) {
+      CompletableFuture<String> failed = new CompletableFuture<>();
+      failed.completeExceptionally(e);
+      return failed;
+    }
+    // Blocks the caller while too many bytes are in flight, like the files of a batch.
+    FormattingBudget budget = executors.budget();
+    int share = budget.acquire(bytes.length);
+    try {
+      return CompletableFuture.supplyAsync(
+              () -> {
+                try {
+                  String input = sourceEncoding.decode(path, bytes);
+                  boolean byteOrderMark = input.startsWith(AbstractFMT.BYTE_ORDER_MARK);
+                  String formatted = engine.format(byteOrderMark ? input.substring(1) : input);
+                  return byteOrderMark ? AbstractFMT.BYTE_ORDER_MARK + formatted : formatted;
+                } catch (IOException | FormatterEngineException e) {
+                  throw new CompletionException(e);
+                }
+              },
+              executors.cpu())
+          .whenComplete((formatted, e) -> budget.release(share));
+    } catch (RejectedExecutionException e) {
+      // Nothing was scheduled, so nothing else gives the share back.
+      budget.release(share);
+      throw e;
+    }
+  }
+
+  /** Waits for the files being processed, then stops the thread pools. */
+  @Override
+  public void close() {
+    executors.close();
+  }
+
+  /** @return the router picking the engine of each file */
+  FormatterRouter getRouter() {
+    return router;
+  }
+
+  /** @return the thread pools of the service */
+  FormattingExecutors executors() {
+    return executors;
+  }
+
+  /**
+   * Stops the service early: walks end, and files that are not formatted yet are dropped without an
+   * outcome. Files already formatted are still completed.
+   */
+  void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * @param root a source directory
+   * @return the filter selecting the files of the source directory to format: Java sources matching
+   *     the patterns of the service, and files matched by a formatter route, unless they are
+   *     excluded
+   */
+  Predicate<Path> sourceFileFilter(Path root) {
+    SourcePathFilter sourcePathFilter = SourcePathFilter.of(includes, excludes);
+    SourcePathFilter exclusions = SourcePathFilter.of(null, excludes);
+    if (verbose) {
+      log.debug("Filter files on '" + filesNamePattern + "'.");
+      log.debug("Filter paths on '" + filesPathPattern + "'.");
+    }
+    Predicate<Path> javaSources =
+        path ->
+            filesNamePattern.matcher(path.getFileName().toString()).matches()
+                && filesPathPattern.matcher(path.toString()).matches()
+                && sourcePathFilter.acceptsFile(root.relativize(path));
+    Predicate<Path> filter =
+        javaSources.or(
+            path -> {
+              Path relativePath = root.relativize(path);
+              return router.routes(relativePath) && exclusions.acceptsFile(relativePath);
+            });
+    if (metrics == null) {
+      return filter;
+    }
+    return path -> {
+      boolean selected = filter.test(path);
+      metrics.scanned(selected);
+      return selected;
+    };
+  }
+
+  /**
+   * Replaces a file atomically with its formatted content in the given encoding, keeping its
+   * permissions and byte order mark. The file is left untouched if its bytes would not change, or
+   * if it no longer has the content that was formatted, e.g. because an editor saved it meanwhile.
+   *
+   * @param path the file
+   * @param input the content the formatted content was computed from, without its byte order mark,
+   *     or null to replace the file whatever its content
+   * @param formatted the formatted content of the file
+   * @param encoding the encoding of the file
+   * @param log where files left untouched are reported
+   * @return what was done to the file
+   * @throws IOException if the file cannot be read or written
+   */
+  static Rewrite rewrite(
+      Path path, String input, String formatted, SourceEncoding encoding, FormattingLog log)
+      throws IOException {
+    byte[] original = Files.readAllBytes(path);
+    if (input != null && !hasContent(path, original, input, encoding)) {
+      log.warn("File '" + path + "' changed while it was formatted, not rewriting it.");
+      return Rewrite.MODIFIED;
+    }
+    byte[] bytes = encoding.encode(formatted);
+    if (Charsets.UTF_8.equals(encoding.getCharset())
+        && startsWith(original, UTF_8_BYTE_ORDER_MARK)) {
+      bytes = Bytes.concat(UTF_8_BYTE_ORDER_MARK, bytes);
+    }
+    if (Arrays.equals(original, bytes)) {
+      log.debug("File '" + path + "' already has the formatted content, not rewriting it.");
+      return Rewrite.UNCHANGED;
+    }
+    byte[] content = bytes;
+    AtomicFiles.write(path, out -> out.write(content));
+    return Rewrite.WRITTEN;
+  }
+
+  /** Whether the bytes of a file decode to the given content, with or without a byte order mark. */
+  private static boolean hasContent(
+      Path path, byte[] bytes, String content, SourceEncoding encoding) {
+    try {
+      String decoded = encoding.decode(path, bytes);
+      return decoded.equals(content) || decoded.equals(AbstractFMT.BYTE_ORDER_MARK + content);
+    } catch (IOException e) {
+      // The file was valid when it was read, so it changed.
+      return false;
+    }
+  }
+
+  private static boolean startsWith(byte[] bytes, byte[] prefix) {
+    if (bytes.length < prefix.length) {
+      return false;
+    }
+    for (int i = 0; i < prefix.length; i++) {
+      if (bytes[i] != prefix[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Runs a file through the pipeline: the file is read on the I/O executor, formatted on the
+   * formatting executor, then handed to the non-complying file handler on the I/O executor if
+   * needed.
+   *
+   * @return a future completed with the outcome of the file, or with null if the service was
+   *     cancelled before the file was formatted
+   */
+  CompletableFuture<FileResult> formatFile(File file, FormatterEngine engine) {
+    return formatFile(file, engine, attributesOf(file));
+  }
+
+  /**
+   * @param attributes the attributes of the file, e.g. read while walking its directory, or null if
+   *     they could not be read
+   * @return a future completed with the outcome of the file, or with null if the service was
+   *     cancelled before the file was formatted
+   */
+  CompletableFuture<FileResult> formatFile(
+      File file, FormatterEngine engine, BasicFileAttributes attributes) {
+    if (verbose) {
+      log.debug("Formatting '" + file + "'.");
+    }
+
+    SourceFile source = new SourceFile(file);
+    source.lines = changedLines != null ? changedLines.get(file.toPath()) : null;
+    long size = attributes != null ? attributes.size() : 0;
+    if (maxFileSize > 0 && size > maxFileSize) {
+      log.warn(
+          String.format(
+              "Skipping file '%s': its size (%d bytes) exceeds maxFileSize (%d bytes).",
+              file, size, maxFileSize));
+      return CompletableFuture.completedFuture(
+          record(source, source.toResult(FileResult.Status.SKIPPED, 0)));
+    }
+    // Formatting some lines only says nothing about the compliance of the whole file.
+    if (snapshot != null && source.lines == null && attributes != null) {
+      source.attributes = attributes;
+      if (snapshot.isUnchanged(file.toPath(), attributes)) {
+        if (verbose) {
+          log.debug("File '" + file + "' is unchanged since it was last found compliant.");
+        }
+        source.inputBytes = size;
+        return CompletableFuture.completedFuture(
+            record(source, source.toResult(FileResult.Status.COMPLIANT, size)));
+      }
+    }
+    // Blocks the caller while too many bytes are in flight, so queued files are never all in
+    // memory.
+    FormattingBudget budget = executors.budget();
+    int share = budget.acquire(size);
+    source.inputBytes = size;
+    try {
+      return CompletableFuture.supplyAsync(() -> readSourceFile(source, engine), executors.io())
+          .thenApplyAsync(read -> formatSource(read, engine), executors.cpu())
+          .thenApplyAsync(this::completeSourceFile, executors.io())
+          .exceptionally(
+              e -> {
+                Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                if (cause instanceof CancellationException) {
+                  return null;
+                }
+                log.error("Failed to format file '" + file + "'.", cause);
+                return record(source, source.toResult(FileResult.Status.FAILED, 0));
+              })
+          .whenComplete((result, e) -> budget.release(share));
+    } catch (RejectedExecutionException e) {
+      // Nothing was scheduled, so nothing else gives the share back.
+      budget.release(share);
+      throw e;
+    }
+  }
+
+  private static BasicFileAttributes attributesOf(File file) {
+    try {
+      return Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+    } catch (IOException e) {
+      // Reading the file fails and reports the error.
+      return null;
+    }
+  }
+
+  /** Reads the source, then looks the outcome of formatting it up in the store if in use. */
+  private SourceFile readSourceFile(SourceFile source, FormatterEngine engine) {
+    if (cancelled) {
+      throw new CancellationException();
+    }
+    long start = System.nanoTime();
+    try {
+      String input = sourceEncoding.read(source.file.toPath());
+      source.timer.stop(FileResult.Phase.READ, start);
+      // google-java-format rejects byte order marks; the file keeps its own when rewritten.
+      source.input = input.startsWith(AbstractFMT.BYTE_ORDER_MARK) ? input.substring(1) : input;
+    } catch (IOException e) {
+      throw new CompletionException(e);
+    }
+    // Formatting some lines only is not the outcome of formatting the content.
+    if (store != null && source.lines == null) {
+      source.storeKey = store.key(engine, source.input);
+      FormattedContentStore.Entry entry = store.get(source.storeKey);
+      if (entry != null) {
+        source.fromStore = true;
+        source.compliant = entry.isCompliant();
+        source.formatted = entry.formatted;
+      }
+    }
+    return source;
+  }
+
+  /** Sets the formatted content of the source, unless it is already compliant. */
+  private SourceFile formatSource(SourceFile source, FormatterEngine engine) {
+    if (cancelled) {
+      throw new CancellationException();
+    }
+    if (source.fromStore) {
+      return source;
+    }
+    String input = source.input;
+    // Formatting some lines only says nothing about the compliance of the whole content.
+    source.hash =
+        cache != null && source.lines == null
+            ? FormattingCache.hash(engine.getId() + '\0' + input)
+            : null;
+    if (source.hash != null && cache.isCompliant(source.hash)) {
+      if (verbose) {
+        log.debug("File '" + source.file + "' is unchanged since it was last found compliant.");
+      }
+      source.compliant = true;
+      return source;
+    }
+    try {
+      if (!formatWithDaemon(source, engine)) {
+        formatInProcess(source, engine);
+      }
+      if (source.compliant && source.hash != null) {
+        cache.markCompliant(source.hash);
+      }
+      return source;
+    } catch (FormatterEngineException e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  private void formatInProcess(SourceFile source, FormatterEngine engine)
+      throws FormatterEngineException {
+    String input = source.input;
+    if (!(engine instanceof JavaSourceFormatter)) {
+      // Other engines format whole files and do not break their time down.
+      long start = System.nanoTime();
+      if (engine instanceof MarkdownFormatter) {
+        // Always formatted, so that the blocks left as they are get reported.
+        String formatted =
+            ((MarkdownFormatter) engine)
+                .format(
+                    input,
+                    (line, reason) ->
+                        log.warn(
+                            String.format(
+                                "Left the java code block at line %d of '%s' as it is: %s",
+                                line, source.file, reason)));
+        source.compliant = input.equals(formatted);
+        source.formatted = source.compliant || !needsFormattedContent ? null : formatted;
+      } else if (needsFormattedContent) {
+        String formatted = engine.format(input);
+        source.compliant = input.equals(formatted);
+        source.formatted = source.compliant ? null : formatted;
+      } else {
+        source.compliant = engine.isFormatted(input);
+      }
+      source.timer.stop(FileResult.Phase.FORMAT, start);
+      return;
+    }
+    JavaSourceFormatter javaFormatter = (JavaSourceFormatter) engine;
+    if (needsFormattedContent) {
+      String formatted = javaFormatter.format(input, source.lines, source.timer);
+      source.compliant = input.equals(formatted);
+      source.formatted = source.compliant ? null : formatted;
+    } else {
+      source.compliant = javaFormatter.isFormatted(input, source.lines, source.timer);
+    }
+  }
+
+  /**
+   * Formats the source with the daemon, if one is in use.
+   *
+   * @return false if the source must be formatted in process
+   */
+  private boolean formatWithDaemon(SourceFile source, FormatterEngine engine)
+      throws FormatterEngineException {
+    // The daemon only runs the default engine.
+    if (daemon == null
+        || !daemon.isConnected()
+        || source.lines != null
+        || engine != router.getDefaultEngine()) {
+      return false;
+    }
+    try {
+      daemon.format(source, needsFormattedContent);
+      return true;
+    } catch (SocketTimeoutException e) {
+      if (daemon.disconnect()) {
+        log.warn("The formatting daemon did not answer in time, formatting in process.");
+      }
+      return false;
+    } catch (IOException e) {
+      if (daemon.disconnect()) {
+        log.warn("Lost the formatting daemon, formatting in process: " + e.getMessage());
+      }
+      return false;
+    }
+  }
+
+  private FileResult completeSourceFile(SourceFile source) {
+    if (source.storeKey != null && !source.fromStore) {
+      addToStore(source);
+    }
+    if (source.compliant) {
+      if (source.attributes != null) {
+        snapshot.markCompliant(source.file.toPath(), source.attributes);
+      }
+      return record(source, source.toResult(FileResult.Status.COMPLIANT, source.inputBytes));
+    }
+    long start = System.nanoTime();
+    try {
+      Rewrite rewrite = nonComplyingFileHandler.accept(source.file, source.input, source.formatted);
+      source.timer.stop(FileResult.Phase.WRITE, start);
+      source.written = rewrite == Rewrite.WRITTEN;
+      if (source.attributes != null && rewrites && rewrite != Rewrite.MODIFIED) {
+        Path path = source.file.toPath();
+        snapshot.markCompliant(path, Files.readAttributes(path, BasicFileAttributes.class));
+      }
+    } catch (IOException e) {
+      throw new CompletionException(e);
+    }
+    long outputBytes =
+        source.formatted != null
+            ? source.formatted.getBytes(sourceEncoding.getCharset()).length
+            : 0;
+    return record(source, source.toResult(FileResult.Status.NON_COMPLIANT, outputBytes));
+  }
+
+  private void addToStore(SourceFile source) {
+    if (!source.compliant && source.formatted == null) {
+      // Only checked, the formatted content is unknown.
+      return;
+    }
+    try {
+      store.put(source.storeKey, source.compliant ? null : source.formatted);
+    } catch (IOException e) {
+      log.debug("Could not add '" + source.file + "' to the shared cache: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Passes the outcome of a file to the metrics and the listener. Their failures are logged, since
+   * they must neither fail the future of the file nor be taken for a failure to format it.
+   */
+  private FileResult record(SourceFile source, FileResult result) {
+    try {
+      if (metrics != null) {
+        metrics.add(result);
+      }
+      if (listener != null) {
+        listener.onFileProcessed(result, source.input, source.formatted);
+      }
+    } catch (RuntimeException e) {
+      log.error("Failed to record the outcome of file '" + source.file + "'.", e);
+    }
+    return result;
+  }
+}
@@ -0,0 +1,116 @@
+package com.coveo;
+
+import com.google.common.collect.RangeSet;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * What the mojos plug into a {@link FormatService} on top of its public configuration: how each
+ * file is handled and recorded, and the caches and daemon of the execution. See {@link
+ * FormatService#create(FormatService.Builder, FormatServiceHooks)}.
+ */
+final class FormatServiceHooks {
+
+  /** What is done with the files that are not formatted. */
+  interface NonComplyingFileHandler {
+
+    /**
+     * @param file the file that is not formatted
+     * @param input the content the formatted content was computed from
+     * @param formatted the formatted content of the file, or null if it was not computed
+     * @return what was done to the file
+     * @throws IOException if the file cannot be written
+     */
+    FormatService.Rewrite accept(File file, String input, String formatted) throws IOException;
+  }
+
+  /**
+   * Receives the outcome of every file, on the thread that completed it. Exceptions thrown by the
+   * listener are logged.
+   */
+  interface FileListener {
+
+    /**
+     * @param result the outcome of the file
+     * @param input the content of the file, or null if it was not read
+     * @param formatted the formatted content of a non-complying file, or null if it was not
+     *     computed
+     */
+    void onFileProcessed(FileResult result, String input, String formatted);
+  }
+
+  boolean verbose;
+  SourceEncoding sourceEncoding;
+  NonComplyingFileHandler nonComplyingFileHandler;
+  boolean needsFormattedContent;
+  FileListener listener;
+  FormattingMetrics metrics;
+  FormattingCache cache;
+  SourceSnapshot snapshot;
+  FormattedContentStore store;
+  Map<Path, RangeSet<Integer>> changedLines;
+  DaemonClient daemon;
+
+  FormatServiceHooks verbose(boolean verbose) {
+    this.verbose = verbose;
+    return this;
+  }
+
+  FormatServiceHooks sourceEncoding(SourceEncoding sourceEncoding) {
+    this.sourceEncoding = sourceEncoding;
+    return this;
+  }
+
+  /**
+   * Replaces what is done with the files that are not formatted, as set by {@link
+   * FormatService.Builder#rewrite(boolean)}, which must still tell whether the handler replaces the
+   * files with their formatted content.
+   *
+   * @param handler receives the files that are not formatted
+   * @param needsFormattedContent whether the handler needs the formatted content
+   * @return these hooks
+   */
+  FormatServiceHooks onNonComplyingFile(
+      NonComplyingFileHandler handler, boolean needsFormattedContent) {
+    this.nonComplyingFileHandler = handler;
+    this.needsFormattedContent = needsFormattedContent;
+    return this;
+  }
+
+  FormatServiceHooks listener(FileListener listener) {
+    this.listener = listener;
+    return this;
+  }
+
+  FormatServiceHooks metrics(FormattingMetrics metrics) {
+    this.metrics = metrics;
+    return this;
+  }
+
+  FormatServiceHooks cache(FormattingCache cache) {
+    this.cache = cache;
+    return this;
+  }
+
+  FormatServiceHooks snapshot(SourceSnapshot snapshot) {
+    this.snapshot = snapshot;
+    return this;
+  }
+
+  FormatServiceHooks store(FormattedContentStore store) {
+    this.store = store;
+    return this;
+  }
+
+  FormatServiceHooks changedLines(Map<Path, RangeSet<Integer>> changedLines) {
+    this.changedLines = changedLines;
+    return this;
+  }
+
+  FormatServiceHooks daemon(DaemonClient daemon) {
+    this.daemon = daemon;
+    return this;
+  }
+}
@@ -0,0 +1,246 @@
+package com.coveo;
+
+import com.google.common.base.Charsets;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Content-addressed store of formatting outcomes shared by every build of the machine, e.g. the
+ * workspaces of several branches of the same repository on a CI agent. An entry maps the hash of an
+ * engine, its version and a content to either a compliant marker or the formatted content, so that
+ * a file seen by any build is not formatted again.
+ *
+ * <p>Entries are immutable and written atomically, so builds in other JVMs read and add them
+ * without locking. Reading an entry refreshes its modification time, and the least recently used
+ * entries are evicted once the store grows past its maximum size. Eviction holds an exclusive lock
+ * on the store, and a reader racing with it only sees a miss.
+ */
+final class FormattedContentStore {
+
+  private static final byte COMPLIANT = 'C';
+  private static final byte FORMATTED = 'F';
+  private static final String LOCK_FILE = ".lock";
+
+  /** Evicting down to this share of the maximum size leaves room for the next builds. */
+  private static final double EVICTION_TARGET = 0.8;
+
+  /** Temporary files older than this were left by a build that crashed. */
+  private static final long ORPHAN_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  /** The outcome of a content found in the store. */
+  static final class Entry {
+
+    /** The formatted content, or null if the content is compliant. */
+    final String formatted;
+
+    private Entry(String formatted) {
+      this.formatted = formatted;
+    }
+
+    boolean isCompliant() {
+      return formatted == null;
+    }
+  }
+
+  private final Path directory;
+  private final long maxBytes;
+  private final String version;
+  private final AtomicInteger hits = new AtomicInteger();
+  private final AtomicInteger misses = new AtomicInteger();
+  private final AtomicInteger writes = new AtomicInteger();
+
+  /**
+   * @param directory the directory of the store
+   * @param maxBytes the size above which entries are evicted
+   * @param version identifies the versions of the plugin and of the formatter
+   */
+  FormattedContentStore(Path directory, long maxBytes, String version) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+    this.version = version;
+  }
+
+  /**
+   * @param engine the engine formatting the content
+   * @param content the content of a file
+   * @return the key of the outcome of formatting the content with the engine
+   */
+  String key(FormatterEngine engine, String content) {
+    return FormattingCache.hash(version + '\0' + engine.getId() + '\0' + content);
+  }
+
+  /**
+   * Looks an entry up, and counts a hit or a miss.
+   *
+   * @param key the key of the entry
+   * @return the entry, or null if the store does not have it
+   */
+  Entry get(String key) {
+    Path file = path(key);
+    try {
+      byte[] bytes = Files.readAllBytes(file);
+      if (bytes.length > 0 && (bytes[0] == COMPLIANT || bytes[0] == FORMATTED)) {
+        touch(file);
+        hits.incrementAndGet();
+        return new Entry(
+            bytes[0] == COMPLIANT ? null : new String(bytes, 1, bytes.length - 1, Charsets.UTF_8));
+      }
+    } catch (IOException e) {
+      // Missing, being evicted, or unreadable: formatting the file is always correct.
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Adds an entry.
+   *
+   * @param key the key of the entry
+   * @param formatted the formatted content, or null if the content is compliant
+   * @throws IOException if the entry cannot be written
+   */
+  void put(String key, String formatted) throws IOException {
+    Path file = path(key);
+    if (Files.exists(file)) {
+      return;
+    }
+    AtomicFiles.write(
+        file,
+        out -> {
+          if (formatted == null) {
+            out.write(COMPLIANT);
+          } else {
+            out.write(FORMATTED);
+            out.write(formatted.getBytes(Charsets.UTF_8));
+          }
+        });
+    writes.incrementAndGet();
+  }
+
+  int getHits() {
+    return hits.get();
+  }
+
+  int getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Evicts the least recently used entries if the store is larger than its maximum size. Does
+   * nothing if no entry was added by this run, or if another build is evicting.
+   *
+   * @return the number of entries evicted
+   * @throws IOException if the store cannot be listed
+   */
+  int evict() throws IOException {
+    if (writes.get() == 0) {
+      return 0;
+    }
+    Files.createDirectories(directory);
+    try (FileChannel channel =
+        FileChannel.open(
+            directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+      FileLock lock;
+      try {
+        lock = channel.tryLock();
+      } catch (OverlappingFileLockException e) {
+        // Another execution of this JVM is evicting.
+        return 0;
+      }
+      if (lock == null) {
+        return 0;
+      }
+      try {
+        return evictLocked();
+      } finally {
+        lock.release();
+      }
+    }
+  }
+
+  private int evictLocked() throws IOException {
+    List<Path> entries = new ArrayList<>();
+    List<BasicFileAttributes> attributes = new ArrayList<>();
+    long now = System.currentTimeMillis();
+    Files.walkFileTree(
+        directory,
+        EnumSet.noneOf(FileVisitOption.class),
+        2,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
+              throws IOException {
+            if (!attrs.isRegularFile() || file.getParent().equals(directory)) {
+              return FileVisitResult.CONTINUE;
+            }
+            if (file.getFileName().toString().startsWith(".")) {
+              if (now - attrs.lastModifiedTime().toMillis() > ORPHAN_AGE_MILLIS) {
+                Files.deleteIfExists(file);
+              }
+            } else {
+              entries.add(file);
+              attributes.add(attrs);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) {
+            // Renamed or deleted by another build while listing.
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    long total = 0;
+    List<Integer> order = new ArrayList<>();
+    for (int i = 0; i < entries.size(); i++) {
+      total += attributes.get(i).size();
+      order.add(i);
+    }
+    if (total <= maxBytes) {
+      return 0;
+    }
+    order.sort(Comparator.comparing(i -> attributes.get(i).lastModifiedTime()));
+    int evicted = 0;
+    long target = (long) (maxBytes * EVICTION_TARGET);
+    for (int i : order) {
+      if (total <= target) {
+        break;
+      }
+      if (Files.deleteIfExists(entries.get(i))) {
+        evicted++;
+      }
+      total -= attributes.get(i).size();
+    }
+    return evicted;
+  }
+
+  /** Marks an entry as recently used. */
+  private static void touch(Path file) {
+    try {
+      Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+    } catch (IOException e) {
+      // Owned by another user: the entry may be evicted early, which only costs a miss.
+    }
+  }
+
+  private Path path(String key) {
+    // Two-level layout, so that no directory holds too many entries.
+    return directory.resolve(key.substring(0, 2)).resolve(key);
+  }
+}
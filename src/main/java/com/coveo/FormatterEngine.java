@@ -0,0 +1,34 @@
+package com.coveo;
+
+/**
+ * Formats the content of source files. An engine is created once per configuration and shared by
+ * every formatting thread of the build, so implementations must be thread-safe.
+ *
+ * <p>The plugin provides google-java-format, <code>text</code> for any text file and <code>
+ * markdown</code> for the Java code blocks of Markdown documents. Other engines are made available
+ * by a {@link FormatterEngineProvider} on the classpath of the plugin.
+ */
+public interface FormatterEngine {
+
+  /**
+   * @return identifies the engine and its configuration, so that files found compliant by one
+   *     engine are not taken as compliant by another
+   */
+  String getId();
+
+  /**
+   * @param input the content of a file
+   * @return the formatted content
+   * @throws FormatterEngineException if the content cannot be formatted
+   */
+  String format(String input) throws FormatterEngineException;
+
+  /**
+   * @param input the content of a file
+   * @return true if {@link #format(String)} would return the content unchanged
+   * @throws FormatterEngineException if the content cannot be formatted
+   */
+  default boolean isFormatted(String input) throws FormatterEngineException {
+    return input.equals(format(input));
+  }
+}
@@ -0,0 +1,20 @@
+package com.coveo;
+
+/** Thrown by a {@link FormatterEngine} when the content of a file cannot be formatted. */
+public class FormatterEngineException extends Exception {
+
+  private static final long serialVersionUID = 1L;
+
+  /** @param message why the content cannot be formatted */
+  public FormatterEngineException(String message) {
+    super(message);
+  }
+
+  /**
+   * @param message why the content cannot be formatted
+   * @param cause the failure of the underlying formatter
+   */
+  public FormatterEngineException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,26 @@
+package com.coveo;
+
+import java.util.Map;
+
+/**
+ * Creates the engines of a formatter that is not built into the plugin. Providers are found with
+ * {@link java.util.ServiceLoader}, so a provider is registered by listing it in <code>
+ * META-INF/services/com.coveo.FormatterEngineProvider</code> and is made available by adding its
+ * artifact to the dependencies of the plugin.
+ */
+public interface FormatterEngineProvider {
+
+  /** @return the name routes use to select the engines of this provider */
+  String getName();
+
+  /**
+   * Creates an engine. The plugin calls it once per configuration and shares the engine between
+   * threads.
+   *
+   * @param options the configuration of the engine: <code>style</code> and <code>
+   *     skipSortingImports</code>
+   * @return the engine
+   * @throws IllegalArgumentException if the options are not supported
+   */
+  FormatterEngine create(Map<String, String> options);
+}
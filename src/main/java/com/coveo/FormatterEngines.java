@@ -0,0 +1,106 @@
+package com.coveo;
+
+import com.google.googlejavaformat.java.JavaFormatterOptions;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the formatter engines shared by every execution of the plugin in a build, like {@link
+ * Formatters}. An engine is created the first time its configuration is used and then reused by
+ * every thread and every module.
+ */
+final class FormatterEngines {
+
+  static final String GOOGLE_JAVA_FORMAT = "google-java-format";
+  static final String TEXT = "text";
+  static final String MARKDOWN = "markdown";
+
+  private static final ConcurrentMap<String, FormatterEngine> ENGINES = new ConcurrentHashMap<>();
+
+  private FormatterEngines() {}
+
+  /**
+   * @param style the style of the formatter
+   * @param skipSortingImports whether imports are left in their order
+   * @return the shared google-java-format engine of the given configuration
+   */
+  static JavaSourceFormatter javaFormatter(
+      JavaFormatterOptions.Style style, boolean skipSortingImports) {
+    return (JavaSourceFormatter)
+        ENGINES.computeIfAbsent(
+            key(GOOGLE_JAVA_FORMAT, style.name(), skipSortingImports),
+            key -> new JavaSourceFormatter(Formatters.forStyle(style), style, skipSortingImports));
+  }
+
+  /**
+   * @param name the name of the engine
+   * @param style the style of the engine
+   * @param skipSortingImports whether imports are left in their order
+   * @return the shared engine of the given configuration
+   * @throws IllegalArgumentException if no engine has the given name or the style is not supported
+   */
+  static FormatterEngine get(String name, String style, boolean skipSortingImports) {
+    if (GOOGLE_JAVA_FORMAT.equals(name)) {
+      return javaFormatter(javaStyle(style), skipSortingImports);
+    }
+    if (TEXT.equals(name)) {
+      return ENGINES.computeIfAbsent(key(TEXT, null, false), key -> new TextFormatter());
+    }
+    if (MARKDOWN.equals(name)) {
+      // Resolved first, since the registry cannot be updated while computing another entry.
+      JavaSourceFormatter javaFormatter = javaFormatter(javaStyle(style), skipSortingImports);
+      return ENGINES.computeIfAbsent(
+          key(MARKDOWN, style, skipSortingImports), key -> new MarkdownFormatter(javaFormatter));
+    }
+    return ENGINES.computeIfAbsent(
+        key(name, style, skipSortingImports),
+        key -> {
+          Map<String, String> options = new HashMap<>();
+          options.put("style", style);
+          options.put("skipSortingImports", Boolean.toString(skipSortingImports));
+          return provider(name).create(options);
+        });
+  }
+
+  /**
+   * @param style <code>google</code> or <code>aosp</code>, in any case
+   * @return the google-java-format style
+   * @throws IllegalArgumentException if the style is unknown
+   */
+  static JavaFormatterOptions.Style javaStyle(String style) {
+    if ("aosp".equalsIgnoreCase(style)) {
+      return JavaFormatterOptions.Style.AOSP;
+    }
+    if ("google".equalsIgnoreCase(style)) {
+      return JavaFormatterOptions.Style.GOOGLE;
+    }
+    throw new IllegalArgumentException(
+        "Unknown style '" + style + "'. Expected 'google' or 'aosp'.");
+  }
+
+  private static FormatterEngineProvider provider(String name) {
+    for (FormatterEngineProvider provider :
+        ServiceLoader.load(
+            FormatterEngineProvider.class, FormatterEngines.class.getClassLoader())) {
+      if (provider.getName().equals(name)) {
+        return provider;
+      }
+    }
+    throw new IllegalArgumentException(
+        "Unknown formatter engine '"
+            + name
+            + "'. Add the artifact providing it to the dependencies of the plugin.");
+  }
+
+  private static String key(String name, String style, boolean skipSortingImports) {
+    return name
+        + '\0'
+        + (style != null ? style.toLowerCase(Locale.ROOT) : "")
+        + '\0'
+        + skipSortingImports;
+  }
+}
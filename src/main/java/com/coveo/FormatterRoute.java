@@ -0,0 +1,45 @@
+package com.coveo;
+
+/**
+ * Formats the files matching a path pattern with a given engine or style, e.g. the AOSP style for
+ * <code>android/**</code>. Configured with the <code>formatterRoutes</code> parameter.
+ */
+public class FormatterRoute {
+
+  /**
+   * The pattern of the files to route, relative to their source directory, with the syntax of
+   * <code>includes</code>.
+   */
+  private String path;
+
+  /** The name of the engine, google-java-format by default. */
+  private String engine = FormatterEngines.GOOGLE_JAVA_FORMAT;
+
+  /** The style of the engine, the <code>style</code> of the mojo by default. */
+  private String style;
+
+  public FormatterRoute() {}
+
+  FormatterRoute(String path, String engine, String style) {
+    this.path = path;
+    this.engine = engine;
+    this.style = style;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public String getEngine() {
+    return engine;
+  }
+
+  public String getStyle() {
+    return style;
+  }
+
+  @Override
+  public String toString() {
+    return path + " -> " + engine + (style != null ? " (" + style + ")" : "");
+  }
+}
@@ -0,0 +1,90 @@
+package com.coveo;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Picks the engine of each file from the configured routes: the first route whose pattern matches
+ * the path of the file relative to its source directory, or the default engine. Routes and engines
+ * are resolved once, so the router is safe to share between threads.
+ */
+final class FormatterRouter {
+
+  private final List<SourcePathFilter> patterns;
+  private final List<FormatterEngine> engines;
+  private final FormatterEngine defaultEngine;
+
+  private FormatterRouter(
+      List<SourcePathFilter> patterns,
+      List<FormatterEngine> engines,
+      FormatterEngine defaultEngine) {
+    this.patterns = patterns;
+    this.engines = engines;
+    this.defaultEngine = defaultEngine;
+  }
+
+  /**
+   * Resolves the engines of the given routes.
+   *
+   * @param routes the routes, or null
+   * @param defaultEngine the engine of the files matched by no route
+   * @param defaultStyle the style of the routes that do not set one
+   * @param skipSortingImports whether imports are left in their order
+   * @return the router
+   * @throws IllegalArgumentException if a route has no path, or its engine or style is unknown
+   */
+  static FormatterRouter of(
+      FormatterRoute[] routes,
+      FormatterEngine defaultEngine,
+      String defaultStyle,
+      boolean skipSortingImports) {
+    List<SourcePathFilter> patterns = new ArrayList<>();
+    List<FormatterEngine> engines = new ArrayList<>();
+    if (routes != null) {
+      for (FormatterRoute route : routes) {
+        if (route.getPath() == null || route.getPath().isEmpty()) {
+          throw new IllegalArgumentException("Formatter route '" + route + "' has no path.");
+        }
+        patterns.add(SourcePathFilter.of(new String[] {route.getPath()}, null));
+        engines.add(
+            FormatterEngines.get(
+                route.getEngine() != null ? route.getEngine() : FormatterEngines.GOOGLE_JAVA_FORMAT,
+                route.getStyle() != null ? route.getStyle() : defaultStyle,
+                skipSortingImports));
+      }
+    }
+    return new FormatterRouter(patterns, engines, defaultEngine);
+  }
+
+  /** @return the engine of the files matched by no route */
+  FormatterEngine getDefaultEngine() {
+    return defaultEngine;
+  }
+
+  /**
+   * @param relativePath the path of a file relative to its source directory
+   * @return true if a route matches the file, which selects it even if it is not a Java source
+   */
+  boolean routes(Path relativePath) {
+    for (SourcePathFilter pattern : patterns) {
+      if (pattern.acceptsFile(relativePath)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param relativePath the path of a file relative to its source directory
+   * @return the engine formatting the file
+   */
+  FormatterEngine engineFor(Path relativePath) {
+    for (int i = 0; i < patterns.size(); i++) {
+      if (patterns.get(i).acceptsFile(relativePath)) {
+        return engines.get(i);
+      }
+    }
+    return defaultEngine;
+  }
+}
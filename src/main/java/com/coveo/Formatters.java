@@ -0,0 +1,52 @@
+package com.coveo;
+
+import com.google.googlejavaformat.java.Formatter;
+import com.google.googlejavaformat.java.JavaFormatterOptions;
+import java.security.CodeSource;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Formatters shared by every execution of the plugin in a build. Maven reuses the plugin class
+ * realm for all the modules of a reactor, so the formatter of a style is created once and the code
+ * it runs stays warm from one module to the next. Formatters are immutable and safe to share
+ * between threads.
+ */
+final class Formatters {
+
+  private static final ConcurrentMap<JavaFormatterOptions.Style, Formatter> FORMATTERS =
+      new ConcurrentHashMap<>();
+
+  private Formatters() {}
+
+  /**
+   * @param style the style of the formatter
+   * @return the shared formatter of the given style
+   */
+  static Formatter forStyle(JavaFormatterOptions.Style style) {
+    return FORMATTERS.computeIfAbsent(
+        style, key -> new Formatter(JavaFormatterOptions.builder().style(key).build()));
+  }
+
+  /**
+   * Identifies the google-java-format release on the classpath, so that upgrading it invalidates
+   * what was computed with another release.
+   *
+   * @return the version of google-java-format and the location it was loaded from
+   */
+  static String version() {
+    return versionOf(Formatter.class);
+  }
+
+  /**
+   * @param type a class
+   * @return the implementation version of the package of the class and the location it was loaded
+   *     from
+   */
+  static String versionOf(Class<?> type) {
+    CodeSource codeSource = type.getProtectionDomain().getCodeSource();
+    return type.getPackage().getImplementationVersion()
+        + "@"
+        + (codeSource != null ? codeSource.getLocation() : null);
+  }
+}
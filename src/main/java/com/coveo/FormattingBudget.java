@@ -0,0 +1,52 @@
+package com.coveo;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounds the size of the files being processed at once. Each file holds a few copies of its content
+ * in memory while it is formatted, so the heap used by formatting grows with the total size of the
+ * files in flight rather than with their number.
+ *
+ * <p>Submitting a file blocks while the budget is used up, which slows the walk of the source tree
+ * down to the pace of the formatting threads. A file larger than the whole budget waits for every
+ * other file to complete and then runs alone.
+ */
+final class FormattingBudget {
+
+  private static final long UNIT_BYTES = 1024;
+
+  private final Semaphore units;
+  private final int capacity;
+
+  /** @param maxBytes the total size of the files that may be processed at once */
+  FormattingBudget(long maxBytes) {
+    this.capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytes / UNIT_BYTES));
+    this.units = new Semaphore(capacity);
+  }
+
+  /**
+   * @param heapBytes the maximum size of the heap
+   * @return the default budget for the given heap
+   */
+  static FormattingBudget forHeap(long heapBytes) {
+    // Input, formatted output and the intermediate copies of each import stage.
+    return new FormattingBudget(heapBytes / 16);
+  }
+
+  /**
+   * Waits until a file of the given size can be processed.
+   *
+   * @param bytes the size of the file
+   * @return the share of the budget taken, to pass to {@link #release(int)}
+   */
+  int acquire(long bytes) {
+    int share = (int) Math.min(capacity, Math.max(1, (bytes + UNIT_BYTES - 1) / UNIT_BYTES));
+    units.acquireUninterruptibly(share);
+    return share;
+  }
+
+  /** @param share the share of the budget returned by {@link #acquire(long)} */
+  void release(int share) {
+    units.release(share);
+  }
+}
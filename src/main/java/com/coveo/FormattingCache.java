@@ -0,0 +1,168 @@
+package com.coveo;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk set of the content hashes of source files known to be compliant with a given formatter
+ * configuration. Files whose hash is recorded can skip formatting entirely.
+ *
+ * <p>The first line of the cache file holds the signature of the configuration that produced it
+ * (plugin and formatter versions, style, import handling). A cache written with another signature
+ * is discarded on load. Each following line holds a hash and the last run it was found compliant
+ * in, so that the hashes of files that were since edited or deleted are dropped after a few runs.
+ */
+class FormattingCache {
+
+  /** The number of runs a hash is kept for without being found compliant again. */
+  static final int MAX_IDLE_RUNS = 10;
+
+  private final Path file;
+  private final String signature;
+  private final Map<String, Integer> knownCompliant = new ConcurrentHashMap<>();
+  private final Set<String> compliant = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger hits = new AtomicInteger();
+  private int run = 1;
+
+  private FormattingCache(Path file, String signature) {
+    this.file = file;
+    this.signature = signature;
+  }
+
+  /**
+   * Creates an empty cache that will be written to the given file.
+   *
+   * @param file the cache file
+   * @param signature the signature of the current configuration
+   * @return the cache
+   */
+  static FormattingCache empty(Path file, String signature) {
+    return new FormattingCache(file, signature);
+  }
+
+  /**
+   * Loads the cache stored in the given file, or an empty one if the file is missing or was written
+   * for another configuration.
+   *
+   * @param file the cache file
+   * @param signature the signature of the current configuration
+   * @return the cache
+   * @throws IOException if the cache file exists but cannot be read
+   */
+  static FormattingCache load(Path file, String signature) throws IOException {
+    FormattingCache cache = empty(file, signature);
+    try (BufferedReader reader = Files.newBufferedReader(file, Charsets.UTF_8)) {
+      if (signature.equals(reader.readLine())) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          int separator = line.indexOf(' ');
+          if (separator < 0) {
+            continue;
+          }
+          try {
+            int lastRun = Integer.parseInt(line.substring(separator + 1));
+            cache.knownCompliant.put(line.substring(0, separator), lastRun);
+            cache.run = Math.max(cache.run, lastRun + 1);
+          } catch (NumberFormatException e) {
+            // Not written by this plugin, the file is formatted again.
+          }
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // First run, nothing cached yet.
+    }
+    return cache;
+  }
+
+  /**
+   * Computes the signature of a formatter configuration.
+   *
+   * @param parts the values identifying the configuration
+   * @return the signature
+   */
+  static String signature(Object... parts) {
+    StringBuilder builder = new StringBuilder();
+    for (Object part : parts) {
+      builder.append(part).append('\0');
+    }
+    return hash(builder.toString());
+  }
+
+  /**
+   * Computes the hash identifying the content of a source file.
+   *
+   * @param content the content of the file
+   * @return the hash
+   */
+  static String hash(String content) {
+    return Hashing.sha256().hashString(content, Charsets.UTF_8).toString();
+  }
+
+  /**
+   * Whether content with the given hash is known to be compliant.
+   *
+   * @param hash the hash of the content
+   * @return true if the content does not need formatting
+   */
+  boolean isCompliant(String hash) {
+    if (knownCompliant.containsKey(hash)) {
+      hits.incrementAndGet();
+      compliant.add(hash);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Records content with the given hash as compliant.
+   *
+   * @param hash the hash of the content
+   */
+  void markCompliant(String hash) {
+    compliant.add(hash);
+  }
+
+  int getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Writes the entries found compliant during this run, and the loaded entries found compliant in
+   * one of the last {@link #MAX_IDLE_RUNS} runs, so that a run over part of the sources keeps the
+   * others. The file is replaced atomically so that concurrent builds never observe a partially
+   * written cache.
+   *
+   * @throws IOException if the cache cannot be written
+   */
+  void save() throws IOException {
+    AtomicFiles.write(
+        file,
+        out -> {
+          BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+          writer.write(signature);
+          writer.newLine();
+          for (String hash : compliant) {
+            writer.write(hash + ' ' + run);
+            writer.newLine();
+          }
+          for (Map.Entry<String, Integer> entry : knownCompliant.entrySet()) {
+            if (!compliant.contains(entry.getKey()) && run - entry.getValue() < MAX_IDLE_RUNS) {
+              writer.write(entry.getKey() + ' ' + entry.getValue());
+              writer.newLine();
+            }
+          }
+          writer.flush();
+        });
+  }
+}
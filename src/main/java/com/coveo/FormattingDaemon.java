@@ -0,0 +1,272 @@
+package com.coveo;
+
+import com.google.common.base.Charsets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.googlejavaformat.java.JavaFormatterOptions;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background JVM that keeps google-java-format loaded and warm between builds, so that running the
+ * plugin on a couple of files does not pay for class loading and JIT compilation of the formatter
+ * each time. It listens on a loopback port only, serves each connection on its own thread and stops
+ * after being idle for the configured time.
+ *
+ * <p>Started by the <code>start-daemon</code> goal and used by the other goals when <code>useDaemon
+ * </code> is set. See {@link DaemonProtocol} for the wire format.
+ */
+public final class FormattingDaemon {
+
+  private static final long ACCEPT_TIMEOUT_MILLIS = 1000;
+  private static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+  private static final int WARM_UP_ITERATIONS = 50;
+
+  private final Path stateFile;
+  private final long idleTimeoutNanos;
+  private final ServerSocket serverSocket;
+  private final byte[] token;
+  private final ExecutorService connections;
+  private final AtomicInteger activeConnections = new AtomicInteger();
+  private final AtomicLong lastActivity = new AtomicLong(System.nanoTime());
+  private final AtomicInteger filesFormatted = new AtomicInteger();
+  private final CountDownLatch stopped = new CountDownLatch(1);
+  private volatile boolean running = true;
+
+  private FormattingDaemon(Path stateFile, long idleTimeoutNanos, ServerSocket serverSocket) {
+    this.stateFile = stateFile;
+    this.idleTimeoutNanos = idleTimeoutNanos;
+    this.serverSocket = serverSocket;
+    this.token = newToken();
+    this.connections =
+        Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("fmt-daemon-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Runs the daemon until it is stopped or idle.
+   *
+   * @param args the state file and the idle timeout, in minutes
+   * @throws Exception if the daemon cannot start
+   */
+  public static void main(String[] args) throws Exception {
+    FormattingDaemon daemon =
+        start(Paths.get(args[0]), TimeUnit.MINUTES.toNanos(Long.parseLong(args[1])));
+    daemon.warmUp();
+    daemon.awaitStop();
+  }
+
+  /**
+   * Starts a daemon on an ephemeral loopback port and publishes its port and token in the state
+   * file.
+   *
+   * @param stateFile the file to publish the port and token to
+   * @param idleTimeoutNanos how long the daemon waits for a connection before stopping
+   * @return the running daemon
+   * @throws IOException if the socket or the state file cannot be created
+   */
+  static FormattingDaemon start(Path stateFile, long idleTimeoutNanos) throws IOException {
+    ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    FormattingDaemon daemon = new FormattingDaemon(stateFile, idleTimeoutNanos, serverSocket);
+    try {
+      serverSocket.setSoTimeout((int) ACCEPT_TIMEOUT_MILLIS);
+      daemon.writeState();
+    } catch (IOException e) {
+      serverSocket.close();
+      throw e;
+    }
+    Thread acceptor = new Thread(daemon::acceptConnections, "fmt-daemon-acceptor");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    return daemon;
+  }
+
+  /** Stops accepting connections and removes the state file. */
+  void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+    try {
+      serverSocket.close();
+    } catch (IOException e) {
+      // Already closed.
+    }
+    connections.shutdownNow();
+    try {
+      Files.deleteIfExists(stateFile);
+    } catch (IOException e) {
+      // The next client finds the port closed and ignores the stale file.
+    }
+    stopped.countDown();
+  }
+
+  void awaitStop() throws InterruptedException {
+    stopped.await();
+  }
+
+  /** @return the number of files formatted or checked since the daemon started */
+  int getFilesFormatted() {
+    return filesFormatted.get();
+  }
+
+  private void warmUp() {
+    for (JavaFormatterOptions.Style style : JavaFormatterOptions.Style.values()) {
+      FormatterEngines.javaFormatter(style, false).warmUp(WARM_UP_ITERATIONS);
+    }
+  }
+
+  private void writeState() throws IOException {
+    Properties state = new Properties();
+    state.setProperty(DaemonProtocol.PORT, Integer.toString(serverSocket.getLocalPort()));
+    state.setProperty(DaemonProtocol.TOKEN, new String(token, Charsets.US_ASCII));
+    AtomicFiles.writeOwnerOnly(stateFile, out -> state.store(out, null));
+  }
+
+  private void acceptConnections() {
+    while (running) {
+      try {
+        Socket socket = serverSocket.accept();
+        activeConnections.incrementAndGet();
+        connections.execute(() -> serve(socket));
+      } catch (SocketTimeoutException e) {
+        if (activeConnections.get() == 0
+            && System.nanoTime() - lastActivity.get() > idleTimeoutNanos) {
+          stop();
+        }
+      } catch (IOException e) {
+        stop();
+      }
+    }
+  }
+
+  private void serve(Socket socket) {
+    try (Socket connection = socket;
+        DataInputStream in =
+            new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+        DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+      // A client that stalls must not keep the daemon from stopping once idle.
+      connection.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+      JavaSourceFormatter formatter = handshake(in, out);
+      if (formatter == null) {
+        return;
+      }
+      connection.setSoTimeout(
+          (int)
+              Math.max(
+                  1, Math.min(Integer.MAX_VALUE, TimeUnit.NANOSECONDS.toMillis(idleTimeoutNanos))));
+      while (running) {
+        byte command;
+        try {
+          command = in.readByte();
+        } catch (EOFException e) {
+          return;
+        }
+        lastActivity.set(System.nanoTime());
+        if (command == DaemonProtocol.STOP) {
+          out.writeByte(DaemonProtocol.STOPPING);
+          out.flush();
+          stop();
+          return;
+        }
+        String path = in.readUTF();
+        String input = DaemonProtocol.readText(in);
+        handle(formatter, command == DaemonProtocol.FORMAT, path, input, out);
+        out.flush();
+      }
+    } catch (IOException e) {
+      // The client went away or stalled, its build falls back to formatting in process.
+    } finally {
+      lastActivity.set(System.nanoTime());
+      activeConnections.decrementAndGet();
+    }
+  }
+
+  private JavaSourceFormatter handshake(DataInputStream in, DataOutputStream out)
+      throws IOException {
+    byte[] presented = in.readUTF().getBytes(Charsets.US_ASCII);
+    String version = in.readUTF();
+    String style = in.readUTF();
+    boolean skipSortingImports = in.readBoolean();
+    JavaFormatterOptions.Style formatterStyle = styleOf(style);
+    if (!MessageDigest.isEqual(token, presented)
+        || !DaemonProtocol.version().equals(version)
+        || formatterStyle == null) {
+      out.writeByte(DaemonProtocol.REJECTED);
+      out.flush();
+      return null;
+    }
+    out.writeByte(DaemonProtocol.ACCEPTED);
+    out.flush();
+    return FormatterEngines.javaFormatter(formatterStyle, skipSortingImports);
+  }
+
+  /** @return the style of the given name, or null if it is unknown */
+  private static JavaFormatterOptions.Style styleOf(String name) {
+    try {
+      return JavaFormatterOptions.Style.valueOf(name);
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+  }
+
+  private void handle(
+      JavaSourceFormatter formatter,
+      boolean needsFormattedContent,
+      String path,
+      String input,
+      DataOutputStream out)
+      throws IOException {
+    PhaseTimer timer = new PhaseTimer();
+    String formatted = null;
+    boolean compliant;
+    try {
+      if (needsFormattedContent) {
+        formatted = formatter.format(input, timer);
+        compliant = input.equals(formatted);
+      } else {
+        compliant = formatter.isFormatted(input, timer);
+      }
+    } catch (FormatterEngineException | RuntimeException e) {
+      out.writeByte(DaemonProtocol.FAILED);
+      DaemonProtocol.writeText(out, "Failed to format '" + path + "': " + e.getMessage());
+      return;
+    }
+    filesFormatted.incrementAndGet();
+    out.writeByte(compliant ? DaemonProtocol.COMPLIANT : DaemonProtocol.NOT_COMPLIANT);
+    if (!compliant && needsFormattedContent) {
+      DaemonProtocol.writeText(out, formatted);
+    }
+    DaemonProtocol.writeNanos(out, timer.toArray());
+  }
+
+  private static byte[] newToken() {
+    byte[] random = new byte[32];
+    new SecureRandom().nextBytes(random);
+    StringBuilder hex = new StringBuilder();
+    for (byte value : random) {
+      hex.append(String.format("%02x", value));
+    }
+    return hex.toString().getBytes(Charsets.US_ASCII);
+  }
+}
@@ -0,0 +1,82 @@
+package com.coveo;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread pools used by a single mojo execution. CPU-bound formatting runs on a pool bounded to the
+ * configured number of threads, while blocking file reads and writes run on a separate pool so that
+ * I/O waits never hold a formatting thread. On Java 21 and later, I/O runs on virtual threads, see
+ * {@link IoThreads}. A {@link FormattingBudget} bounds the size of the files in flight, and both
+ * pools are metered.
+ */
+class FormattingExecutors implements AutoCloseable {
+
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+  private final ExecutorService cpu;
+  private final ExecutorService io;
+  private final MeteredExecutor meteredCpu;
+  private final MeteredExecutor meteredIo;
+  private final FormattingBudget budget;
+
+  /**
+   * Creates the pools.
+   *
+   * @param threads the number of formatting threads, or 0 to use one per available processor
+   * @param maxInFlightBytes the total size of the files processed at once, or 0 to derive it from
+   *     the maximum heap size
+   * @param virtualThreads whether to run I/O on virtual threads if the runtime supports them
+   */
+  FormattingExecutors(int threads, long maxInFlightBytes, boolean virtualThreads) {
+    int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    cpu = Executors.newFixedThreadPool(size, threadFactory("fmt-format-%d"));
+    io = IoThreads.newExecutor(size, virtualThreads, threadFactory("fmt-io-%d"));
+    meteredCpu = new MeteredExecutor(cpu, size);
+    meteredIo = new MeteredExecutor(io, IoThreads.platformThreads(size, virtualThreads));
+    budget =
+        maxInFlightBytes > 0
+            ? new FormattingBudget(maxInFlightBytes)
+            : FormattingBudget.forHeap(Runtime.getRuntime().maxMemory());
+  }
+
+  /** @return the executor for CPU-bound formatting */
+  MeteredExecutor cpu() {
+    return meteredCpu;
+  }
+
+  /** @return the executor for blocking file I/O */
+  MeteredExecutor io() {
+    return meteredIo;
+  }
+
+  /** @return the budget of the files in flight */
+  FormattingBudget budget() {
+    return budget;
+  }
+
+  /** Stops accepting work and waits for running tasks to finish. */
+  @Override
+  public void close() {
+    cpu.shutdown();
+    io.shutdown();
+    try {
+      if (!cpu.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+          || !io.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        cpu.shutdownNow();
+        io.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      cpu.shutdownNow();
+      io.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static ThreadFactory threadFactory(String nameFormat) {
+    return new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build();
+  }
+}
@@ -0,0 +1,47 @@
+package com.coveo;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Receives the messages of a {@link FormatService}. The goals pass the log of the Maven build,
+ * other users may pass their own or keep the default, which logs to {@link java.util.logging}.
+ */
+public interface FormattingLog {
+
+  /** @param message a message only shown when troubleshooting */
+  void debug(String message);
+
+  /** @param message a message about a file that was not formatted as configured */
+  void warn(String message);
+
+  /**
+   * @param message a message about a file that could not be formatted
+   * @param cause the cause of the failure
+   */
+  void error(String message, Throwable cause);
+
+  /**
+   * @param logger the logger to write to
+   * @return a log writing debug messages at {@link Level#FINE}, warnings at {@link Level#WARNING}
+   *     and errors at {@link Level#SEVERE}
+   */
+  static FormattingLog of(Logger logger) {
+    return new FormattingLog() {
+      @Override
+      public void debug(String message) {
+        logger.fine(message);
+      }
+
+      @Override
+      public void warn(String message) {
+        logger.warning(message);
+      }
+
+      @Override
+      public void error(String message, Throwable cause) {
+        logger.log(Level.SEVERE, message, cause);
+      }
+    };
+  }
+}
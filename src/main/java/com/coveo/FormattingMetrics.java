@@ -0,0 +1,335 @@
+package com.coveo;
+
+import com.google.common.base.Charsets;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters and latency histograms of an execution of the plugin, updated as files complete. They
+ * are exposed through JMX while the build runs, see {@link FormattingMetricsMXBean}, and written in
+ * the Prometheus text format once it ends, so that the node exporter textfile collector can pick
+ * them up without any service running.
+ */
+final class FormattingMetrics implements FormattingMetricsMXBean {
+
+  private static final String DOMAIN = "com.coveo.fmt";
+
+  /** Upper bounds of the latency buckets, in nanoseconds. */
+  private static final long[] BUCKETS = {
+    TimeUnit.MICROSECONDS.toNanos(100),
+    TimeUnit.MICROSECONDS.toNanos(500),
+    TimeUnit.MILLISECONDS.toNanos(1),
+    TimeUnit.MILLISECONDS.toNanos(5),
+    TimeUnit.MILLISECONDS.toNanos(10),
+    TimeUnit.MILLISECONDS.toNanos(50),
+    TimeUnit.MILLISECONDS.toNanos(100),
+    TimeUnit.MILLISECONDS.toNanos(500),
+    TimeUnit.SECONDS.toNanos(1),
+    TimeUnit.SECONDS.toNanos(5)
+  };
+
+  private static final AtomicInteger RUNS = new AtomicInteger();
+
+  /** Latency histogram with the fixed {@link #BUCKETS}. */
+  private static final class Histogram {
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+      for (int i = 0; i < counts.length; i++) {
+        counts[i] = new LongAdder();
+      }
+    }
+
+    void add(long nanos) {
+      int bucket = 0;
+      while (bucket < BUCKETS.length && nanos > BUCKETS[bucket]) {
+        bucket++;
+      }
+      counts[bucket].increment();
+      sumNanos.add(nanos);
+    }
+  }
+
+  private final long startNanos = System.nanoTime();
+  private final LongAdder scanned = new LongAdder();
+  private final LongAdder filtered = new LongAdder();
+  private final LongAdder bytesRead = new LongAdder();
+  private final LongAdder bytesWritten = new LongAdder();
+  private final LongAdder[] statuses = new LongAdder[FileResult.Status.values().length];
+  private final Histogram fileDurations = new Histogram();
+  private final Histogram[] phaseDurations = new Histogram[FileResult.Phase.values().length];
+  private volatile MeteredExecutor cpu;
+  private volatile MeteredExecutor io;
+
+  FormattingMetrics() {
+    for (int i = 0; i < statuses.length; i++) {
+      statuses[i] = new LongAdder();
+    }
+    for (int i = 0; i < phaseDurations.length; i++) {
+      phaseDurations[i] = new Histogram();
+    }
+  }
+
+  /** Meters the thread pools of the given executors, which are kept once they are closed. */
+  void meter(FormattingExecutors executors) {
+    cpu = executors.cpu();
+    io = executors.io();
+  }
+
+  /**
+   * Counts a file found in a source directory.
+   *
+   * @param selected whether the file was selected for formatting
+   */
+  void scanned(boolean selected) {
+    scanned.increment();
+    if (!selected) {
+      filtered.increment();
+    }
+  }
+
+  /**
+   * Counts the outcome of a file.
+   *
+   * @param result the outcome of the file
+   */
+  void add(FileResult result) {
+    statuses[result.getStatus().ordinal()].increment();
+    if (result.getPhaseNanos(FileResult.Phase.READ) > 0) {
+      bytesRead.add(result.getInputBytes());
+      fileDurations.add(result.getDurationNanos());
+      for (FileResult.Phase phase : FileResult.Phase.values()) {
+        long nanos = result.getPhaseNanos(phase);
+        if (nanos > 0) {
+          phaseDurations[phase.ordinal()].add(nanos);
+        }
+      }
+    }
+    if (result.isWritten()) {
+      bytesWritten.add(result.getOutputBytes());
+    }
+  }
+
+  /**
+   * Registers the metrics with the platform MBean server.
+   *
+   * @param project the name of the project
+   * @return the name the metrics are registered under
+   * @throws JMException if the metrics cannot be registered
+   */
+  ObjectName register(String project) throws JMException {
+    ObjectName name =
+        new ObjectName(
+            DOMAIN
+                + ":type=FormattingMetrics,project="
+                + ObjectName.quote(String.valueOf(project))
+                + ",run="
+                + RUNS.incrementAndGet());
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    return name;
+  }
+
+  /**
+   * @param name the name returned by {@link #register(String)}
+   * @throws JMException if the metrics cannot be unregistered
+   */
+  static void unregister(ObjectName name) throws JMException {
+    ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+  }
+
+  /**
+   * Writes the metrics in the Prometheus text format, replacing the file atomically so that a
+   * collector never reads it half written.
+   *
+   * @param file the metrics file
+   * @param project the name of the project, added as a label to every sample
+   * @throws IOException if the file cannot be written
+   */
+  void write(Path file, String project) throws IOException {
+    String label = "project=\"" + escape(String.valueOf(project)) + "\"";
+    AtomicFiles.write(
+        file,
+        out -> {
+          Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+          counter(writer, "fmt_files_scanned_total", "Files found in the source directories.");
+          sample(writer, "fmt_files_scanned_total", label, scanned.sum());
+          counter(writer, "fmt_files_filtered_total", "Files found but not selected.");
+          sample(writer, "fmt_files_filtered_total", label, filtered.sum());
+          counter(writer, "fmt_files_total", "Files processed, by outcome.");
+          for (FileResult.Status status : FileResult.Status.values()) {
+            String statusLabel =
+                label + ",status=\"" + status.name().toLowerCase(Locale.ROOT) + "\"";
+            sample(writer, "fmt_files_total", statusLabel, statuses[status.ordinal()].sum());
+          }
+          counter(writer, "fmt_read_bytes_total", "Bytes read from source files.");
+          sample(writer, "fmt_read_bytes_total", label, bytesRead.sum());
+          counter(writer, "fmt_written_bytes_total", "Bytes written to source files.");
+          sample(writer, "fmt_written_bytes_total", label, bytesWritten.sum());
+          histogram(
+              writer,
+              "fmt_file_duration_seconds",
+              "Time spent processing a file.",
+              label,
+              fileDurations);
+          writer.write("# HELP fmt_phase_duration_seconds Time spent in a phase of a file.\n");
+          writer.write("# TYPE fmt_phase_duration_seconds histogram\n");
+          for (FileResult.Phase phase : FileResult.Phase.values()) {
+            String phaseLabel = label + ",phase=\"" + phase.name().toLowerCase(Locale.ROOT) + "\"";
+            histogramSamples(
+                writer, "fmt_phase_duration_seconds", phaseLabel, phaseDurations[phase.ordinal()]);
+          }
+          gauge(
+              writer, "fmt_pool_queue_depth_max", "Largest number of tasks waiting for a thread.");
+          sample(
+              writer, "fmt_pool_queue_depth_max", label + ",pool=\"format\"", maxQueueDepth(cpu));
+          sample(writer, "fmt_pool_queue_depth_max", label + ",pool=\"io\"", maxQueueDepth(io));
+          gauge(writer, "fmt_pool_utilization_ratio", "Share of the time the threads were busy.");
+          sample(
+              writer, "fmt_pool_utilization_ratio", label + ",pool=\"format\"", utilization(cpu));
+          // Virtual threads have no pool size the busy time could be compared to.
+          if (!Double.isNaN(utilization(io))) {
+            sample(writer, "fmt_pool_utilization_ratio", label + ",pool=\"io\"", utilization(io));
+          }
+          gauge(writer, "fmt_run_duration_seconds", "Duration of the run.");
+          sample(
+              writer, "fmt_run_duration_seconds", label, seconds(System.nanoTime() - startNanos));
+          gauge(writer, "fmt_last_run_timestamp_seconds", "End of the run, in Unix time.");
+          sample(
+              writer, "fmt_last_run_timestamp_seconds", label, System.currentTimeMillis() / 1000.0);
+          writer.flush();
+        });
+  }
+
+  @Override
+  public long getFilesScanned() {
+    return scanned.sum();
+  }
+
+  @Override
+  public long getFilesFiltered() {
+    return filtered.sum();
+  }
+
+  @Override
+  public long getFilesCompliant() {
+    return statuses[FileResult.Status.COMPLIANT.ordinal()].sum();
+  }
+
+  @Override
+  public long getFilesNonCompliant() {
+    return statuses[FileResult.Status.NON_COMPLIANT.ordinal()].sum();
+  }
+
+  @Override
+  public long getFilesFailed() {
+    return statuses[FileResult.Status.FAILED.ordinal()].sum();
+  }
+
+  @Override
+  public long getFilesSkipped() {
+    return statuses[FileResult.Status.SKIPPED.ordinal()].sum();
+  }
+
+  @Override
+  public long getBytesRead() {
+    return bytesRead.sum();
+  }
+
+  @Override
+  public long getBytesWritten() {
+    return bytesWritten.sum();
+  }
+
+  @Override
+  public Map<String, Long> getPhaseNanos() {
+    Map<String, Long> nanos = new LinkedHashMap<>();
+    for (FileResult.Phase phase : FileResult.Phase.values()) {
+      nanos.put(phase.getLabel(), phaseDurations[phase.ordinal()].sumNanos.sum());
+    }
+    return nanos;
+  }
+
+  @Override
+  public int getFormatQueueDepth() {
+    return cpu != null ? cpu.getQueueDepth() : 0;
+  }
+
+  @Override
+  public int getIoQueueDepth() {
+    return io != null ? io.getQueueDepth() : 0;
+  }
+
+  @Override
+  public double getFormatUtilization() {
+    return utilization(cpu);
+  }
+
+  @Override
+  public double getIoUtilization() {
+    return utilization(io);
+  }
+
+  private static int maxQueueDepth(MeteredExecutor executor) {
+    return executor != null ? executor.getMaxQueueDepth() : 0;
+  }
+
+  private static double utilization(MeteredExecutor executor) {
+    return executor != null ? executor.getUtilization() : 0;
+  }
+
+  private static void counter(Writer writer, String name, String help) throws IOException {
+    writer.write("# HELP " + name + " " + help + "\n# TYPE " + name + " counter\n");
+  }
+
+  private static void gauge(Writer writer, String name, String help) throws IOException {
+    writer.write("# HELP " + name + " " + help + "\n# TYPE " + name + " gauge\n");
+  }
+
+  private static void histogram(
+      Writer writer, String name, String help, String labels, Histogram histogram)
+      throws IOException {
+    writer.write("# HELP " + name + " " + help + "\n# TYPE " + name + " histogram\n");
+    histogramSamples(writer, name, labels, histogram);
+  }
+
+  private static void histogramSamples(
+      Writer writer, String name, String labels, Histogram histogram) throws IOException {
+    long cumulative = 0;
+    for (int i = 0; i < BUCKETS.length; i++) {
+      cumulative += histogram.counts[i].sum();
+      String bound = BigDecimal.valueOf(seconds(BUCKETS[i])).stripTrailingZeros().toPlainString();
+      sample(writer, name + "_bucket", labels + ",le=\"" + bound + "\"", cumulative);
+    }
+    cumulative += histogram.counts[BUCKETS.length].sum();
+    sample(writer, name + "_bucket", labels + ",le=\"+Inf\"", cumulative);
+    sample(writer, name + "_sum", labels, seconds(histogram.sumNanos.sum()));
+    sample(writer, name + "_count", labels, cumulative);
+  }
+
+  private static void sample(Writer writer, String name, String labels, Number value)
+      throws IOException {
+    writer.write(name + "{" + labels + "} " + value + "\n");
+  }
+
+  private static double seconds(long nanos) {
+    return nanos / 1e9;
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+}
@@ -0,0 +1,52 @@
+package com.coveo;
+
+import java.util.Map;
+
+/**
+ * Management interface of the metrics of a running execution of the plugin, registered with the
+ * platform MBean server under <code>com.coveo.fmt:type=FormattingMetrics</code> when <code>metrics
+ * </code> is set.
+ */
+public interface FormattingMetricsMXBean {
+
+  /** @return the number of files found in the source directories */
+  long getFilesScanned();
+
+  /** @return the number of files found in the source directories that were not selected */
+  long getFilesFiltered();
+
+  /** @return the number of files that were already formatted */
+  long getFilesCompliant();
+
+  /** @return the number of files that were not formatted */
+  long getFilesNonCompliant();
+
+  /** @return the number of files that could not be read, formatted or written */
+  long getFilesFailed();
+
+  /** @return the number of files left untouched because of their size */
+  long getFilesSkipped();
+
+  /** @return the number of bytes read from source files */
+  long getBytesRead();
+
+  /** @return the number of bytes written to source files */
+  long getBytesWritten();
+
+  /** @return the total time spent in each phase, in nanoseconds, by phase name */
+  Map<String, Long> getPhaseNanos();
+
+  /** @return the number of files waiting for a formatting thread */
+  int getFormatQueueDepth();
+
+  /** @return the number of files waiting for an I/O thread */
+  int getIoQueueDepth();
+
+  /** @return the share of the time the formatting threads were busy */
+  double getFormatUtilization();
+
+  /**
+   * @return the share of the time the I/O threads were busy, or NaN if I/O runs on virtual threads
+   */
+  double getIoUtilization();
+}
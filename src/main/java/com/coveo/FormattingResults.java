@@ -0,0 +1,92 @@
+package com.coveo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Results of a formatting run. Formatting threads record one {@link FileResult} per file without
+ * locking; every count and list is derived from those records so they always agree, unless some
+ * outcomes were only counted.
+ */
+public final class FormattingResults {
+
+  private final Queue<FileResult> results = new ConcurrentLinkedQueue<>();
+  private final AtomicIntegerArray counts =
+      new AtomicIntegerArray(FileResult.Status.values().length);
+  private final AtomicInteger recorded = new AtomicInteger();
+
+  /**
+   * Records the outcome of a file.
+   *
+   * @param result the outcome
+   * @return the position of this outcome among the recorded ones, starting at 1
+   */
+  int add(FileResult result) {
+    results.add(result);
+    return addCount(result);
+  }
+
+  /**
+   * Counts the outcome of a file without keeping it, so that a run that never ends does not hold
+   * every outcome. The lists only contain the outcomes that were added.
+   *
+   * @param result the outcome
+   * @return the position of this outcome among the counted ones, starting at 1
+   */
+  int addCount(FileResult result) {
+    counts.incrementAndGet(result.getStatus().ordinal());
+    return recorded.incrementAndGet();
+  }
+
+  /** @return every recorded outcome, in completion order */
+  public Collection<FileResult> getResults() {
+    return Collections.unmodifiableCollection(results);
+  }
+
+  /**
+   * @param status a status
+   * @return the number of files with the given status
+   */
+  public int count(FileResult.Status status) {
+    return counts.get(status.ordinal());
+  }
+
+  /** @return the absolute paths of the files that were formatted, whether compliant or not */
+  public List<String> getFilesProcessed() {
+    List<String> paths = new ArrayList<>();
+    for (FileResult result : results) {
+      if (result.getStatus() == FileResult.Status.COMPLIANT
+          || result.getStatus() == FileResult.Status.NON_COMPLIANT) {
+        paths.add(result.getFile().getAbsolutePath());
+      }
+    }
+    return paths;
+  }
+
+  /** @return the number of files that were formatted, whether compliant or not */
+  public int getFilesProcessedCount() {
+    return count(FileResult.Status.COMPLIANT) + count(FileResult.Status.NON_COMPLIANT);
+  }
+
+  /** @return the absolute paths of the files that were not compliant */
+  public List<String> getNonComplyingFiles() {
+    List<String> paths = new ArrayList<>();
+    for (FileResult result : results) {
+      if (result.getStatus() == FileResult.Status.NON_COMPLIANT) {
+        paths.add(result.getFile().getAbsolutePath());
+      }
+    }
+    return paths;
+  }
+
+  /** @return the number of files that were not compliant */
+  public int getNonComplyingFilesCount() {
+    return count(FileResult.Status.NON_COMPLIANT);
+  }
+}
@@ -0,0 +1,200 @@
+package com.coveo;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableRangeSet;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.common.collect.TreeRangeSet;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Lists the files of a git working tree that differ from a given ref, using the local <code>git
+ * </code> executable. Nothing here touches the network.
+ */
+class GitChangedFiles {
+
+  private static final long TIMEOUT_SECONDS = 60;
+
+  /** The header of a hunk of a diff, capturing the first line and line count of the new side. */
+  private static final Pattern HUNK =
+      Pattern.compile("@@ -\\d+(?:,\\d+)? \\+(\\d+)(?:,(\\d+))? @@");
+
+  /** The lines of a file that is new to git, and must be formatted as a whole. */
+  static final RangeSet<Integer> WHOLE_FILE = ImmutableRangeSet.of(Range.<Integer>all());
+
+  private GitChangedFiles() {}
+
+  /**
+   * Lists the files that differ between the working tree and the given ref, including uncommitted
+   * changes and untracked files that are not ignored.
+   *
+   * @param workingDirectory any directory inside the git working tree
+   * @param ref the ref to compare against, e.g. <code>origin/main</code>
+   * @return the absolute paths of the changed files
+   * @throws IOException if git is not available, the directory is not in a git working tree or the
+   *     ref cannot be resolved
+   */
+  static Set<Path> since(File workingDirectory, String ref) throws IOException {
+    Path topLevel = Paths.get(git(workingDirectory, "rev-parse", "--show-toplevel").trim());
+    File root = topLevel.toFile();
+    Set<Path> changed = new HashSet<>();
+    for (String path : split(git(root, "diff", "--name-only", "-z", ref, "--"))) {
+      changed.add(topLevel.resolve(path));
+    }
+    for (String path : split(git(root, "ls-files", "--others", "--exclude-standard", "-z"))) {
+      changed.add(topLevel.resolve(path));
+    }
+    return changed;
+  }
+
+  /**
+   * Lists the lines that differ between the working tree and the given ref, including uncommitted
+   * changes. Untracked files that are not ignored are changed as a whole. Files where lines were
+   * only deleted are not listed.
+   *
+   * @param workingDirectory any directory inside the git working tree
+   * @param ref the ref to compare against, e.g. <code>HEAD</code>
+   * @return the 0-based indexes of the changed lines, by absolute path of the changed files
+   * @throws IOException if git is not available, the directory is not in a git working tree or the
+   *     ref cannot be resolved
+   */
+  static Map<Path, RangeSet<Integer>> changedLinesSince(File workingDirectory, String ref)
+      throws IOException {
+    Path topLevel = Paths.get(git(workingDirectory, "rev-parse", "--show-toplevel").trim());
+    File root = topLevel.toFile();
+    String diff =
+        git(
+            root,
+            "-c",
+            "core.quotePath=false",
+            "diff",
+            "-U0",
+            "--no-color",
+            "--no-ext-diff",
+            "--src-prefix=a/",
+            "--dst-prefix=b/",
+            ref,
+            "--");
+    Map<Path, RangeSet<Integer>> changed = new HashMap<>();
+    RangeSet<Integer> lines = null;
+    boolean inFileHeader = false;
+    for (String line : diff.split("\n")) {
+      if (line.startsWith("diff --git ")) {
+        inFileHeader = true;
+        lines = null;
+      } else if (inFileHeader && line.startsWith("+++ ")) {
+        String path = diffHeaderPath(line.substring("+++ ".length()));
+        // Deleted files are compared to /dev/null.
+        lines = path.startsWith("b/") ? TreeRangeSet.create() : null;
+        if (lines != null) {
+          changed.put(topLevel.resolve(path.substring("b/".length())), lines);
+        }
+      } else if (line.startsWith("@@ ")) {
+        inFileHeader = false;
+        Matcher hunk = HUNK.matcher(line);
+        if (lines != null && hunk.lookingAt()) {
+          int start = Integer.parseInt(hunk.group(1)) - 1;
+          int count = hunk.group(2) != null ? Integer.parseInt(hunk.group(2)) : 1;
+          if (count > 0) {
+            lines.add(Range.closedOpen(start, start + count));
+          }
+        }
+      }
+    }
+    changed.values().removeIf(RangeSet::isEmpty);
+    for (String path : split(git(root, "ls-files", "--others", "--exclude-standard", "-z"))) {
+      changed.put(topLevel.resolve(path), WHOLE_FILE);
+    }
+    return changed;
+  }
+
+  static String git(File workingDirectory, String... arguments) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add("git");
+    for (String argument : arguments) {
+      command.add(argument);
+    }
+    // Errors go to a file, so that git can never block on a full stderr pipe while stdout is read.
+    File errors = File.createTempFile("fmt-git", ".log");
+    try {
+      Process process =
+          new ProcessBuilder(command).directory(workingDirectory).redirectError(errors).start();
+      String output;
+      try (InputStream stdout = process.getInputStream()) {
+        output = new String(ByteStreams.toByteArray(stdout), Charsets.UTF_8);
+      }
+      try {
+        if (!process.waitFor(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          process.destroyForcibly();
+          throw new IOException("Timed out running " + command);
+        }
+      } catch (InterruptedException e) {
+        process.destroyForcibly();
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted running " + command, e);
+      }
+      if (process.exitValue() != 0) {
+        String error = new String(Files.readAllBytes(errors.toPath()), Charsets.UTF_8);
+        throw new IOException(
+            command + " failed with exit code " + process.exitValue() + ": " + error.trim());
+      }
+      return output;
+    } finally {
+      errors.delete();
+    }
+  }
+
+  /**
+   * Reads a path from a diff header. Git quotes paths with special characters C-style, and follows
+   * other paths that contain a space with a tab.
+   */
+  private static String diffHeaderPath(String header) {
+    if (!header.startsWith("\"")) {
+      return header.endsWith("\t") ? header.substring(0, header.length() - 1) : header;
+    }
+    // Escapes are ASCII, so they can be read from the UTF-8 bytes of the header.
+    byte[] quoted = header.getBytes(Charsets.UTF_8);
+    ByteArrayOutputStream path = new ByteArrayOutputStream(quoted.length);
+    for (int i = 1; i < quoted.length && quoted[i] != '"'; i++) {
+      int b = quoted[i];
+      if (b == '\\' && i + 1 < quoted.length) {
+        b = quoted[++i];
+        if (b >= '0' && b <= '7' && i + 2 < quoted.length) {
+          b = Integer.parseInt(new String(quoted, i, 3, Charsets.US_ASCII), 8);
+          i += 2;
+        } else {
+          int escape = "abtnvfr".indexOf(b);
+          b = escape >= 0 ? 7 + escape : b;
+        }
+      }
+      path.write(b);
+    }
+    return new String(path.toByteArray(), Charsets.UTF_8);
+  }
+
+  private static List<String> split(String nulSeparated) {
+    List<String> paths = new ArrayList<>();
+    for (String path : nulSeparated.split("\0")) {
+      if (!path.isEmpty()) {
+        paths.add(path);
+      }
+    }
+    return paths;
+  }
+}
@@ -0,0 +1,41 @@
+package com.coveo;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the pool running blocking file I/O. This version runs it on platform threads. The jar
+ * also holds a version for Java 21 and later under <code>META-INF/versions/21</code>, built from
+ * <code>src/main/java21</code>, that runs it on virtual threads. Both versions must keep the same
+ * methods, and no constant may be inlined into their callers.
+ */
+final class IoThreads {
+
+  private IoThreads() {}
+
+  /** @return whether the runtime supports running file I/O on virtual threads */
+  static boolean supportsVirtualThreads() {
+    return false;
+  }
+
+  /**
+   * @param threads the number of platform threads
+   * @param virtualThreads whether to use virtual threads if the runtime supports them
+   * @return the number of platform threads of the pool, or 0 if it runs on virtual threads
+   */
+  static int platformThreads(int threads, boolean virtualThreads) {
+    return threads;
+  }
+
+  /**
+   * @param threads the number of platform threads
+   * @param virtualThreads whether to use virtual threads if the runtime supports them
+   * @param platformThreads the factory of platform threads
+   * @return the pool
+   */
+  static ExecutorService newExecutor(
+      int threads, boolean virtualThreads, ThreadFactory platformThreads) {
+    return Executors.newFixedThreadPool(threads, platformThreads);
+  }
+}
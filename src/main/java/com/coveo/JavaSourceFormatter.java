@@ -0,0 +1,241 @@
+package com.coveo;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Range;
+import com.google.common.collect.RangeSet;
+import com.google.googlejavaformat.java.Formatter;
+import com.google.googlejavaformat.java.FormatterException;
+import com.google.googlejavaformat.java.ImportOrderer;
+import com.google.googlejavaformat.java.JavaFormatterOptions;
+import com.google.googlejavaformat.java.RemoveUnusedImports;
+
+/**
+ * Formats Java sources the way the plugin does: google-java-format, then removal of unused imports,
+ * then import ordering unless it is skipped. Instances are safe to share between threads.
+ *
+ * <p>Each instance remembers the hashes of the last sources it found formatted, so that checking a
+ * source again, in a later build of the daemon or another goal of the same build, skips every
+ * stage. The first check of a source still runs google-java-format, which takes most of the time.
+ */
+final class JavaSourceFormatter implements FormatterEngine {
+
+  private static final String WARM_UP_SOURCE =
+      "import java.util.List;\n"
+          + "import java.util.ArrayList;\n"
+          + "class WarmUp { List<String> names = new ArrayList<>();\n"
+          + "  int size(){ return names.size(); } }\n";
+
+  static final int KNOWN_FORMATTED_SOURCES = 10_000;
+
+  private final Formatter formatter;
+  private final JavaFormatterOptions.Style style;
+  private final boolean skipSortingImports;
+  private final Cache<String, Boolean> knownFormatted;
+
+  JavaSourceFormatter(
+      Formatter formatter, JavaFormatterOptions.Style style, boolean skipSortingImports) {
+    this(formatter, style, skipSortingImports, KNOWN_FORMATTED_SOURCES);
+  }
+
+  /**
+   * @param knownFormattedSources how many formatted sources to remember, 0 to always run the stages
+   */
+  JavaSourceFormatter(
+      Formatter formatter,
+      JavaFormatterOptions.Style style,
+      boolean skipSortingImports,
+      int knownFormattedSources) {
+    this.formatter = formatter;
+    this.style = style;
+    this.skipSortingImports = skipSortingImports;
+    this.knownFormatted = CacheBuilder.newBuilder().maximumSize(knownFormattedSources).build();
+  }
+
+  @Override
+  public String getId() {
+    return FormatterEngines.GOOGLE_JAVA_FORMAT
+        + ":"
+        + style
+        + (skipSortingImports ? ":unsorted-imports" : "");
+  }
+
+  /**
+   * @param input the source to format
+   * @return the formatted source
+   * @throws FormatterEngineException if the source cannot be parsed
+   */
+  @Override
+  public String format(String input) throws FormatterEngineException {
+    return format(input, new PhaseTimer());
+  }
+
+  /**
+   * @param input the source to format
+   * @param timer records the time spent in each stage
+   * @return the formatted source
+   * @throws FormatterEngineException if the source cannot be parsed
+   */
+  String format(String input, PhaseTimer timer) throws FormatterEngineException {
+    String hash = FormattingCache.hash(input);
+    if (knownFormatted.getIfPresent(hash) != null) {
+      return input;
+    }
+    try {
+      long start = System.nanoTime();
+      String formatted = formatter.formatSource(input);
+      timer.stop(FileResult.Phase.FORMAT, start);
+      formatted = fixImports(formatted, timer);
+      if (formatted.equals(input)) {
+        knownFormatted.put(hash, Boolean.TRUE);
+      }
+      return formatted;
+    } catch (FormatterException e) {
+      throw new FormatterEngineException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Formats the given lines of a source, leaving the other lines as they are. Imports are only
+   * fixed when one of the lines is an import declaration.
+   *
+   * @param input the source to format
+   * @param lines the 0-based indexes of the lines to format, or null to format every line
+   * @param timer records the time spent in each stage
+   * @return the formatted source
+   * @throws FormatterEngineException if the source cannot be parsed
+   */
+  String format(String input, RangeSet<Integer> lines, PhaseTimer timer)
+      throws FormatterEngineException {
+    if (lines == null || lines.encloses(Range.all())) {
+      return format(input, timer);
+    }
+    try {
+      long start = System.nanoTime();
+      String formatted =
+          formatter.formatSource(input, Formatter.lineRangesToCharRanges(input, lines).asRanges());
+      timer.stop(FileResult.Phase.FORMAT, start);
+      return hasImportDeclaration(input, lines) ? fixImports(formatted, timer) : formatted;
+    } catch (FormatterException e) {
+      throw new FormatterEngineException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * @param input the source to check
+   * @param lines the 0-based indexes of the lines to check, or null to check every line
+   * @param timer records the time spent in each stage
+   * @return true if {@link #format(String, RangeSet, PhaseTimer)} would return the input unchanged
+   * @throws FormatterEngineException if the source cannot be parsed
+   */
+  boolean isFormatted(String input, RangeSet<Integer> lines, PhaseTimer timer)
+      throws FormatterEngineException {
+    if (lines == null || lines.encloses(Range.all())) {
+      return isFormatted(input, timer);
+    }
+    return input.equals(format(input, lines, timer));
+  }
+
+  private String fixImports(String formatted, PhaseTimer timer) throws FormatterException {
+    long start = System.nanoTime();
+    formatted = RemoveUnusedImports.removeUnusedImports(formatted);
+    timer.stop(FileResult.Phase.REMOVE_UNUSED_IMPORTS, start);
+    if (!skipSortingImports) {
+      start = System.nanoTime();
+      formatted = ImportOrderer.reorderImports(formatted, style);
+      timer.stop(FileResult.Phase.ORDER_IMPORTS, start);
+    }
+    return formatted;
+  }
+
+  /**
+   * Tells whether a source is already formatted, doing as little work as possible. A formatted
+   * source is left unchanged by every stage of {@link #format(String)}, so each stage is run on the
+   * input itself and the check stops at the first stage that changes it. Import handling is skipped
+   * altogether for sources without imports, and every stage for sources already found formatted.
+   *
+   * @param input the source to check
+   * @return true if {@link #format(String)} would return the input unchanged
+   * @throws FormatterEngineException if the source cannot be parsed
+   */
+  @Override
+  public boolean isFormatted(String input) throws FormatterEngineException {
+    return isFormatted(input, new PhaseTimer());
+  }
+
+  /**
+   * @param input the source to check
+   * @param timer records the time spent in each stage
+   * @return true if {@link #format(String)} would return the input unchanged
+   * @throws FormatterEngineException if the source cannot be parsed
+   */
+  boolean isFormatted(String input, PhaseTimer timer) throws FormatterEngineException {
+    String hash = FormattingCache.hash(input);
+    if (knownFormatted.getIfPresent(hash) != null) {
+      return true;
+    }
+    boolean formatted = isFormattedByEveryStage(input, timer);
+    if (formatted) {
+      knownFormatted.put(hash, Boolean.TRUE);
+    }
+    return formatted;
+  }
+
+  private boolean isFormattedByEveryStage(String input, PhaseTimer timer)
+      throws FormatterEngineException {
+    try {
+      long start = System.nanoTime();
+      boolean formatted = input.equals(formatter.formatSource(input));
+      timer.stop(FileResult.Phase.FORMAT, start);
+      if (!formatted || !mayHaveImports(input)) {
+        return formatted;
+      }
+      start = System.nanoTime();
+      boolean importsUsed = input.equals(RemoveUnusedImports.removeUnusedImports(input));
+      timer.stop(FileResult.Phase.REMOVE_UNUSED_IMPORTS, start);
+      if (!importsUsed || skipSortingImports) {
+        return importsUsed;
+      }
+      start = System.nanoTime();
+      boolean importsOrdered = input.equals(ImportOrderer.reorderImports(input, style));
+      timer.stop(FileResult.Phase.ORDER_IMPORTS, start);
+      return importsOrdered;
+    } catch (FormatterException e) {
+      throw new FormatterEngineException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Formats a small source repeatedly, so that the classes of the formatter are loaded and its hot
+   * paths compiled before the first real file comes in.
+   *
+   * @param iterations the number of times to format the source
+   */
+  void warmUp(int iterations) {
+    try {
+      for (int i = 0; i < iterations; i++) {
+        format(WARM_UP_SOURCE);
+      }
+    } catch (FormatterEngineException e) {
+      throw new IllegalStateException("Cannot format the warm-up source", e);
+    }
+  }
+
+  private static boolean hasImportDeclaration(String input, RangeSet<Integer> lines) {
+    String[] inputLines = input.split("\n", -1);
+    for (Range<Integer> range :
+        lines.subRangeSet(Range.closedOpen(0, inputLines.length)).asRanges()) {
+      for (int line = range.lowerEndpoint(); line < range.upperEndpoint(); line++) {
+        if (inputLines[line].trim().startsWith("import ")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /** Returns false only when the source cannot contain an import declaration. */
+  private static boolean mayHaveImports(String input) {
+    return input.contains("import");
+  }
+}
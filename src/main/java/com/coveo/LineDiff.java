@@ -0,0 +1,241 @@
+package com.coveo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Line-based diff between a file and its formatted content, rendered as unified diff hunks. Uses
+ * the linear-space variant of Myers' algorithm, which finds a shortest edit script while only
+ * keeping two arrays of diagonals per level of recursion.
+ */
+final class LineDiff {
+
+  /** A group of nearby changes with the lines around them. */
+  static final class Hunk {
+
+    /** The first line of the original file that changed, 1-based. */
+    final int line;
+
+    /** The last line of the original file that changed, 1-based, never less than {@link #line}. */
+    final int endLine;
+
+    /** The hunk in unified diff format, starting with its <code>@@</code> header. */
+    final String text;
+
+    Hunk(int line, int endLine, String text) {
+      this.line = line;
+      this.endLine = endLine;
+      this.text = text;
+    }
+  }
+
+  private final String[] original;
+  private final String[] revised;
+  private final boolean[] deleted;
+  private final boolean[] inserted;
+  private final int[] forward;
+  private final int[] backward;
+
+  private LineDiff(String[] original, String[] revised) {
+    this.original = original;
+    this.revised = revised;
+    this.deleted = new boolean[original.length];
+    this.inserted = new boolean[revised.length];
+    int diagonals = original.length + revised.length + 3;
+    this.forward = new int[diagonals];
+    this.backward = new int[diagonals];
+  }
+
+  /**
+   * @param original the content of the file
+   * @param revised the formatted content
+   * @param context the number of unchanged lines to show around changes
+   * @return the hunks, in order, or an empty list if the lines are the same
+   */
+  static List<Hunk> diff(String original, String revised, int context) {
+    LineDiff diff = new LineDiff(lines(original), lines(revised));
+    diff.compare(0, diff.original.length, 0, diff.revised.length);
+    return diff.hunks(context);
+  }
+
+  private static String[] lines(String text) {
+    if (text.isEmpty()) {
+      return new String[0];
+    }
+    // Carriage returns are kept so that a change of line separators shows up as a difference.
+    String[] lines = text.split("\n", -1);
+    if (lines[lines.length - 1].isEmpty()) {
+      // The empty string after the last line break is not a line.
+      return Arrays.copyOf(lines, lines.length - 1);
+    }
+    lines[lines.length - 1] += "\n\\ No newline at end of file";
+    return lines;
+  }
+
+  /** Marks the lines deleted from and inserted into the given ranges. */
+  private void compare(int aStart, int aEnd, int bStart, int bEnd) {
+    while (aStart < aEnd && bStart < bEnd && original[aStart].equals(revised[bStart])) {
+      aStart++;
+      bStart++;
+    }
+    while (aEnd > aStart && bEnd > bStart && original[aEnd - 1].equals(revised[bEnd - 1])) {
+      aEnd--;
+      bEnd--;
+    }
+    if (aStart == aEnd) {
+      Arrays.fill(inserted, bStart, bEnd, true);
+    } else if (bStart == bEnd) {
+      Arrays.fill(deleted, aStart, aEnd, true);
+    } else {
+      // Both ranges start and end with a change, so each half of the split is a smaller problem.
+      int[] snake = middleSnake(aStart, aEnd, bStart, bEnd);
+      compare(aStart, snake[0], bStart, snake[1]);
+      compare(snake[2], aEnd, snake[3], bEnd);
+    }
+  }
+
+  /**
+   * Finds the snake in the middle of a shortest edit script by extending paths from both ends until
+   * they overlap.
+   *
+   * @return the start and end of the snake, as original and revised line indexes
+   */
+  private int[] middleSnake(int aStart, int aEnd, int bStart, int bEnd) {
+    int n = aEnd - aStart;
+    int m = bEnd - bStart;
+    int delta = n - m;
+    boolean odd = (delta & 1) != 0;
+    int max = (n + m + 1) / 2;
+    int offset = max + 1;
+    forward[offset + 1] = 0;
+    backward[offset + 1] = 0;
+    for (int d = 0; d <= max; d++) {
+      for (int k = -d; k <= d; k += 2) {
+        int x =
+            k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1])
+                ? forward[offset + k + 1]
+                : forward[offset + k - 1] + 1;
+        int y = x - k;
+        int startX = x;
+        int startY = y;
+        while (x < n && y < m && original[aStart + x].equals(revised[bStart + y])) {
+          x++;
+          y++;
+        }
+        forward[offset + k] = x;
+        int reverse = delta - k;
+        if (odd && reverse >= -(d - 1) && reverse <= d - 1 && x + backward[offset + reverse] >= n) {
+          return new int[] {aStart + startX, bStart + startY, aStart + x, bStart + y};
+        }
+      }
+      for (int k = -d; k <= d; k += 2) {
+        int x =
+            k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1])
+                ? backward[offset + k + 1]
+                : backward[offset + k - 1] + 1;
+        int y = x - k;
+        int startX = x;
+        int startY = y;
+        while (x < n && y < m && original[aEnd - x - 1].equals(revised[bEnd - y - 1])) {
+          x++;
+          y++;
+        }
+        backward[offset + k] = x;
+        int ahead = delta - k;
+        if (!odd && ahead >= -d && ahead <= d && x + forward[offset + ahead] >= n) {
+          return new int[] {aEnd - x, bEnd - y, aEnd - startX, bEnd - startY};
+        }
+      }
+    }
+    throw new IllegalStateException("No middle snake between the lines");
+  }
+
+  private List<Hunk> hunks(int context) {
+    List<Hunk> hunks = new ArrayList<>();
+    int a = 0;
+    int b = 0;
+    while (true) {
+      // Skip to the next change.
+      while (a < original.length && b < revised.length && !deleted[a] && !inserted[b]) {
+        a++;
+        b++;
+      }
+      if (a == original.length && b == revised.length) {
+        return hunks;
+      }
+      int leading = Math.min(context, a);
+      int hunkA = a - leading;
+      int hunkB = b - leading;
+      int firstChange = a;
+      int lastChange = a;
+      // Extend the hunk until the next change is too far away.
+      int endA = a;
+      int endB = b;
+      while (true) {
+        while ((endA < original.length && deleted[endA])
+            || (endB < revised.length && inserted[endB])) {
+          if (endA < original.length && deleted[endA]) {
+            lastChange = endA;
+            endA++;
+          } else {
+            if (endA == 0 || !deleted[endA - 1]) {
+              // Lines replacing deleted lines are reported on the deleted lines.
+              lastChange = Math.max(lastChange, Math.min(endA, original.length - 1));
+            }
+            endB++;
+          }
+        }
+        int unchanged = 0;
+        while (endA + unchanged < original.length
+            && endB + unchanged < revised.length
+            && !deleted[endA + unchanged]
+            && !inserted[endB + unchanged]
+            && unchanged <= 2 * context) {
+          unchanged++;
+        }
+        boolean atEnd = endA + unchanged == original.length && endB + unchanged == revised.length;
+        if (atEnd || unchanged > 2 * context) {
+          int trailing = Math.min(context, unchanged);
+          hunks.add(hunk(hunkA, endA + trailing, hunkB, endB + trailing, firstChange, lastChange));
+          a = endA + unchanged;
+          b = endB + unchanged;
+          break;
+        }
+        endA += unchanged;
+        endB += unchanged;
+      }
+    }
+  }
+
+  private Hunk hunk(int aFrom, int aTo, int bFrom, int bTo, int firstChange, int lastChange) {
+    StringBuilder text = new StringBuilder();
+    text.append("@@ -")
+        .append(range(aFrom, aTo - aFrom))
+        .append(" +")
+        .append(range(bFrom, bTo - bFrom))
+        .append(" @@\n");
+    int a = aFrom;
+    int b = bFrom;
+    while (a < aTo || b < bTo) {
+      if (a < aTo && deleted[a]) {
+        text.append('-').append(original[a++]).append('\n');
+      } else if (b < bTo && inserted[b]) {
+        text.append('+').append(revised[b++]).append('\n');
+      } else {
+        text.append(' ').append(original[a++]).append('\n');
+        b++;
+      }
+    }
+    // An insertion-only hunk is reported on the line it is inserted before, or on the last line
+    // when it is appended.
+    int lastLine = Math.max(1, original.length);
+    int line = Math.min(firstChange + 1, lastLine);
+    return new Hunk(line, Math.min(Math.max(line, lastChange + 1), lastLine), text.toString());
+  }
+
+  private static String range(int start, int count) {
+    // Unified diffs number an empty range after the line that precedes it.
+    return (count == 0 ? start : start + 1) + "," + count;
+  }
+}
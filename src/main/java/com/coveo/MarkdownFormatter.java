@@ -0,0 +1,133 @@
+package com.coveo;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Formats the fenced <code>java</code> code blocks of Markdown documents with a Java engine, and
+ * leaves the rest of the document as it is. Blocks that are not whole compilation units, such as a
+ * few statements, cannot be parsed and are left as they are too, as are blocks that are not closed.
+ */
+final class MarkdownFormatter implements FormatterEngine {
+
+  /** Receives the code blocks that are left as they are. */
+  interface SkippedBlockListener {
+
+    /**
+     * @param line the 1-based line of the opening fence of the block
+     * @param reason why the block is not formatted
+     */
+    void onSkippedBlock(int line, String reason);
+  }
+
+  private static final Pattern JAVA_FENCE =
+      Pattern.compile("( {0,3})(`{3,}|~{3,})[ \t]*java\\b[^`]*");
+
+  private final FormatterEngine javaEngine;
+
+  MarkdownFormatter(FormatterEngine javaEngine) {
+    this.javaEngine = javaEngine;
+  }
+
+  @Override
+  public String getId() {
+    return FormatterEngines.MARKDOWN + ":" + javaEngine.getId();
+  }
+
+  @Override
+  public String format(String input) {
+    return format(input, (line, reason) -> {});
+  }
+
+  /**
+   * @param input the content of a document
+   * @param listener receives the code blocks that are left as they are
+   * @return the formatted content
+   */
+  String format(String input, SkippedBlockListener listener) {
+    String[] lines = input.split("(?<=\n)", -1);
+    StringBuilder formatted = new StringBuilder(input.length());
+    int i = 0;
+    while (i < lines.length) {
+      String line = lines[i++];
+      formatted.append(line);
+      Matcher fence = JAVA_FENCE.matcher(stripSeparator(line));
+      if (!fence.matches()) {
+        continue;
+      }
+      String indent = fence.group(1);
+      String marker = fence.group(2);
+      StringBuilder code = new StringBuilder();
+      int start = i;
+      while (i < lines.length && !isClosingFence(lines[i], marker)) {
+        code.append(unindent(lines[i], indent));
+        i++;
+      }
+      if (i == lines.length) {
+        // An unclosed block runs to the end of the document, which is left as it is.
+        listener.onSkippedBlock(start, "the block is not closed");
+        for (int j = start; j < lines.length; j++) {
+          formatted.append(lines[j]);
+        }
+        break;
+      }
+      formatted.append(formatBlock(code.toString(), indent, lines, start, i, listener));
+    }
+    return formatted.toString();
+  }
+
+  private String formatBlock(
+      String code,
+      String indent,
+      String[] lines,
+      int start,
+      int end,
+      SkippedBlockListener listener) {
+    String formattedCode;
+    try {
+      formattedCode = javaEngine.format(code);
+    } catch (FormatterEngineException e) {
+      listener.onSkippedBlock(start, e.getMessage());
+      formattedCode = null;
+    } catch (RuntimeException e) {
+      listener.onSkippedBlock(start, e.toString());
+      formattedCode = null;
+    }
+    StringBuilder block = new StringBuilder();
+    if (formattedCode == null) {
+      for (int j = start; j < end; j++) {
+        block.append(lines[j]);
+      }
+      return block.toString();
+    }
+    for (String line : formattedCode.split("(?<=\n)")) {
+      block.append(stripSeparator(line).isEmpty() ? line : indent + line);
+    }
+    return block.toString();
+  }
+
+  private static boolean isClosingFence(String line, String marker) {
+    String content = stripSeparator(line).trim();
+    if (content.length() < marker.length()) {
+      return false;
+    }
+    for (int i = 0; i < content.length(); i++) {
+      if (content.charAt(i) != marker.charAt(0)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String unindent(String line, String indent) {
+    return line.startsWith(indent) ? line.substring(indent.length()) : line;
+  }
+
+  private static String stripSeparator(String line) {
+    int end = line.length();
+    while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) {
+      end--;
+    }
+    return line.substring(0, end);
+  }
+}
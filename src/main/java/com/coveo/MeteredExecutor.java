@@ -0,0 +1,66 @@
+package com.coveo;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Executor that measures the queue of a thread pool and the time its threads spend running tasks,
+ * for {@link FormattingMetrics}.
+ */
+final class MeteredExecutor implements Executor {
+
+  private final Executor delegate;
+  private final int threads;
+  private final long startNanos = System.nanoTime();
+  private final AtomicInteger queued = new AtomicInteger();
+  private final AtomicInteger maxQueued = new AtomicInteger();
+  private final LongAdder busyNanos = new LongAdder();
+
+  /**
+   * @param delegate the pool running the tasks
+   * @param threads the number of threads of the pool, or 0 if it starts a virtual thread per task
+   */
+  MeteredExecutor(Executor delegate, int threads) {
+    this.delegate = delegate;
+    this.threads = threads;
+  }
+
+  @Override
+  public void execute(Runnable task) {
+    int depth = queued.incrementAndGet();
+    maxQueued.accumulateAndGet(depth, Math::max);
+    delegate.execute(
+        () -> {
+          queued.decrementAndGet();
+          long start = System.nanoTime();
+          try {
+            task.run();
+          } finally {
+            busyNanos.add(System.nanoTime() - start);
+          }
+        });
+  }
+
+  /** @return the number of tasks waiting for a thread */
+  int getQueueDepth() {
+    return queued.get();
+  }
+
+  /** @return the largest number of tasks that waited for a thread at once */
+  int getMaxQueueDepth() {
+    return maxQueued.get();
+  }
+
+  /**
+   * @return the share of the time the threads spent running tasks since the pool was created, or
+   *     NaN if the pool has no fixed number of threads
+   */
+  double getUtilization() {
+    if (threads == 0) {
+      return Double.NaN;
+    }
+    long elapsed = System.nanoTime() - startNanos;
+    return elapsed > 0 ? Math.min(1, busyNanos.sum() / ((double) elapsed * threads)) : 0;
+  }
+}
@@ -0,0 +1,20 @@
+package com.coveo;
+
+import java.io.File;
+import java.util.List;
+
+/** The source directories of a module, and the outcome of the files found in them. */
+final class ModuleSources {
+
+  /** The name of the module, or null when the mojo formats its own project only. */
+  final String name;
+
+  final List<File> directories;
+  final FormattingResults results;
+
+  ModuleSources(String name, List<File> directories, FormattingResults results) {
+    this.name = name;
+    this.directories = directories;
+    this.results = results;
+  }
+}
@@ -0,0 +1,44 @@
+package com.coveo;
+
+/**
+ * Accumulates the time spent in each phase of the processing of a file. A file is processed by a
+ * single thread at a time, so the timer is not synchronized.
+ */
+final class PhaseTimer {
+
+  private final long[] nanos = new long[FileResult.Phase.values().length];
+
+  /**
+   * Records the end of a phase.
+   *
+   * @param phase the phase that ended
+   * @param startNanos the value of {@link System#nanoTime()} when the phase started
+   */
+  void stop(FileResult.Phase phase, long startNanos) {
+    nanos[phase.ordinal()] += System.nanoTime() - startNanos;
+  }
+
+  /**
+   * Adds time measured elsewhere, e.g. by the formatting daemon.
+   *
+   * @param phaseNanos the time spent in each phase, indexed by phase ordinal
+   */
+  void add(long[] phaseNanos) {
+    for (int i = 0; i < Math.min(nanos.length, phaseNanos.length); i++) {
+      nanos[i] += phaseNanos[i];
+    }
+  }
+
+  /** @return the time spent in all phases, in nanoseconds */
+  long total() {
+    long total = 0;
+    for (long phaseNanos : nanos) {
+      total += phaseNanos;
+    }
+    return total;
+  }
+
+  long[] toArray() {
+    return nanos.clone();
+  }
+}
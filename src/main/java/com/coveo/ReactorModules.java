@@ -0,0 +1,123 @@
+package com.coveo;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.model.PluginManagement;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+/**
+ * Collects the source directories of the modules of a reactor for the aggregate goals. Modules with
+ * <code>pom</code> packaging are skipped, as are modules that set the <code>fmt.skip</code>
+ * property or configure the plugin with <code>skip</code>.
+ *
+ * <p>The configuration of a module is that of the plugin in its build, or in its pluginManagement
+ * when the build does not declare the plugin, overridden by the executions of the goal being
+ * aggregated. <code>sourceDirectory</code>, <code>testSourceDirectory</code>, <code>
+ * additionalSourceDirectories</code> and <code>skip</code> are read from it.
+ */
+final class ReactorModules {
+
+  private static final String PLUGIN_KEY = "com.coveo:fmt-maven-plugin";
+  private static final String SKIP_PROPERTY = "fmt.skip";
+
+  private ReactorModules() {}
+
+  /**
+   * @param mojo the aggregate mojo
+   * @param projects the projects of the reactor
+   * @param goal the goal whose executions configure each module, e.g. <code>check</code> for <code>
+   *     check-aggregate</code>
+   * @return the source directories of the modules that are not skipped
+   * @throws MojoFailureException if a source directory is missing and the mojo fails on it
+   */
+  static List<ModuleSources> collect(AbstractFMT mojo, List<MavenProject> projects, String goal)
+      throws MojoFailureException {
+    List<ModuleSources> modules = new ArrayList<>();
+    for (MavenProject project : projects) {
+      String name = project.getArtifactId();
+      if ("pom".equals(project.getPackaging())) {
+        mojo.getLog().debug("Skipping module '" + name + "': project uses 'pom' packaging");
+        continue;
+      }
+      Xpp3Dom configuration = configuration(project, goal);
+      if (isSkipped(project, configuration)) {
+        mojo.getLog().info("Skipping module '" + name + "'");
+        continue;
+      }
+      Build build = project.getBuild();
+      modules.add(
+          mojo.moduleSources(
+              name,
+              directory(project, configuration, "sourceDirectory", build.getSourceDirectory()),
+              directory(
+                  project, configuration, "testSourceDirectory", build.getTestSourceDirectory()),
+              additionalSourceDirectories(project, configuration),
+              new FormattingResults()));
+    }
+    return modules;
+  }
+
+  private static boolean isSkipped(MavenProject project, Xpp3Dom configuration) {
+    if (Boolean.parseBoolean(project.getProperties().getProperty(SKIP_PROPERTY))) {
+      return true;
+    }
+    Xpp3Dom skip = configuration != null ? configuration.getChild("skip") : null;
+    return skip != null && Boolean.parseBoolean(skip.getValue());
+  }
+
+  /** @return the configuration of the plugin in the module, or null if it has none */
+  private static Xpp3Dom configuration(MavenProject project, String goal) {
+    Plugin plugin = project.getPlugin(PLUGIN_KEY);
+    PluginManagement pluginManagement = project.getPluginManagement();
+    if (plugin == null && pluginManagement != null) {
+      plugin = pluginManagement.getPluginsAsMap().get(PLUGIN_KEY);
+    }
+    if (plugin == null) {
+      return null;
+    }
+    Xpp3Dom configuration = (Xpp3Dom) plugin.getConfiguration();
+    for (PluginExecution execution : plugin.getExecutions()) {
+      if (execution.getGoals().contains(goal) && execution.getConfiguration() != null) {
+        // Merging changes the dominant configuration, which belongs to the model.
+        Xpp3Dom dominant = new Xpp3Dom((Xpp3Dom) execution.getConfiguration());
+        configuration = Xpp3Dom.mergeXpp3Dom(dominant, configuration);
+      }
+    }
+    return configuration;
+  }
+
+  private static File directory(
+      MavenProject project, Xpp3Dom configuration, String parameter, String defaultDirectory) {
+    Xpp3Dom directory = configuration != null ? configuration.getChild(parameter) : null;
+    if (directory == null || directory.getValue() == null) {
+      return new File(defaultDirectory);
+    }
+    return resolve(project, directory.getValue());
+  }
+
+  private static File[] additionalSourceDirectories(MavenProject project, Xpp3Dom configuration) {
+    Xpp3Dom directories =
+        configuration != null ? configuration.getChild("additionalSourceDirectories") : null;
+    if (directories == null) {
+      return new File[0];
+    }
+    List<File> files = new ArrayList<>();
+    for (Xpp3Dom directory : directories.getChildren()) {
+      if (directory.getValue() != null) {
+        files.add(resolve(project, directory.getValue()));
+      }
+    }
+    return files.toArray(new File[0]);
+  }
+
+  private static File resolve(MavenProject project, String path) {
+    File file = new File(path.trim());
+    return file.isAbsolute() ? file : new File(project.getBasedir(), file.getPath());
+  }
+}
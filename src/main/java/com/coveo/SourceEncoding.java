@@ -0,0 +1,194 @@
+package com.coveo;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Reads and writes source files in the encoding of the project. Files are read through a {@link
+ * FileChannel} into pooled buffers, or mapped in memory when they are large and are not going to be
+ * rewritten, then decoded once. Buffers are pooled rather than kept per thread, since I/O may run
+ * on a new virtual thread for each file.
+ *
+ * <p>Bytes that are not valid in the encoding fail the file instead of being replaced, since
+ * writing the replacement characters back would corrupt it.
+ */
+final class SourceEncoding {
+
+  /** Files of at least this size are mapped in memory rather than copied into a buffer. */
+  static final int MAPPED_FILE_SIZE = 1 << 20;
+
+  private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+  /** Buffers kept for reuse, enough for the files read at once by a few I/O threads. */
+  private static final int POOLED_BUFFERS = 16;
+
+  private final Charset charset;
+  private final boolean mapLargeFiles;
+  private final Queue<ByteBuffer> byteBuffers = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+  private final Queue<CharBuffer> charBuffers = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+
+  /**
+   * @param charset the encoding of the source files
+   * @param mapLargeFiles whether large files may be mapped in memory, which keeps them open until
+   *     the mapping is garbage collected and so must not be done for files that are rewritten
+   */
+  SourceEncoding(Charset charset, boolean mapLargeFiles) {
+    this.charset = charset;
+    this.mapLargeFiles = mapLargeFiles;
+  }
+
+  Charset getCharset() {
+    return charset;
+  }
+
+  /**
+   * Reads and decodes a file.
+   *
+   * @param path the file
+   * @return the content of the file
+   * @throws IOException if the file cannot be read or is not valid in the encoding
+   */
+  String read(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("File '" + path + "' is too large to be formatted.");
+      }
+      if (mapLargeFiles && size >= MAPPED_FILE_SIZE) {
+        return decode(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+      }
+      ByteBuffer bytes = readFully(channel, (int) size);
+      try {
+        return decode(path, bytes);
+      } finally {
+        release(byteBuffers, bytes);
+      }
+    }
+  }
+
+  /**
+   * Decodes the content of a file that was not read from disk.
+   *
+   * @param path the path of the file, for error messages
+   * @param bytes the content of the file
+   * @return the decoded content
+   * @throws IOException if the content is not valid in the encoding
+   */
+  String decode(Path path, byte[] bytes) throws IOException {
+    return decode(path, ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * @param content the content of a file
+   * @return the encoded content
+   * @throws CharacterCodingException if the content has characters the encoding cannot represent
+   */
+  byte[] encode(String content) throws CharacterCodingException {
+    CharsetEncoder encoder =
+        charset
+            .newEncoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    ByteBuffer encoded = encoder.encode(CharBuffer.wrap(content));
+    byte[] bytes = new byte[encoded.remaining()];
+    encoded.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Reads the channel to its end, which may be past the size it had when opened. Buffers are cast
+   * to {@link Buffer} before flip and clear, whose overrides only exist since Java 9.
+   */
+  private ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+    ByteBuffer buffer = byteBuffer(size + 1);
+    while (channel.read(buffer) >= 0) {
+      if (!buffer.hasRemaining()) {
+        ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+        ((Buffer) buffer).flip();
+        larger.put(buffer);
+        release(byteBuffers, buffer);
+        buffer = larger;
+      }
+    }
+    ((Buffer) buffer).flip();
+    return buffer;
+  }
+
+  private String decode(Path path, ByteBuffer bytes) throws IOException {
+    CharsetDecoder decoder =
+        charset
+            .newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    CharBuffer chars =
+        charBuffer((int) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1);
+    try {
+      return decode(path, bytes, decoder, chars);
+    } finally {
+      release(charBuffers, chars);
+    }
+  }
+
+  private String decode(Path path, ByteBuffer bytes, CharsetDecoder decoder, CharBuffer chars)
+      throws IOException {
+    CoderResult result = decoder.decode(bytes, chars, true);
+    if (!result.isError()) {
+      result = decoder.flush(chars);
+    }
+    if (result.isError()) {
+      throw new IOException(
+          "File '"
+              + path
+              + "' is not valid "
+              + charset.name()
+              + " at byte "
+              + bytes.position()
+              + ". Set the encoding of the sources with project.build.sourceEncoding.");
+    }
+    if (result.isOverflow()) {
+      throw new IOException("Could not decode '" + path + "' in " + charset.name() + ".");
+    }
+    ((Buffer) chars).flip();
+    return chars.toString();
+  }
+
+  /** @return a cleared buffer of at least the given capacity, taken from the pool if possible */
+  private ByteBuffer byteBuffer(int capacity) {
+    ByteBuffer buffer = byteBuffers.poll();
+    if (buffer != null && buffer.capacity() >= capacity) {
+      ((Buffer) buffer).clear();
+      return buffer;
+    }
+    return ByteBuffer.allocate(Math.max(capacity, INITIAL_BUFFER_SIZE));
+  }
+
+  /** @return a cleared buffer of at least the given capacity, taken from the pool if possible */
+  private CharBuffer charBuffer(int capacity) {
+    CharBuffer buffer = charBuffers.poll();
+    if (buffer != null && buffer.capacity() >= capacity) {
+      ((Buffer) buffer).clear();
+      return buffer;
+    }
+    return CharBuffer.allocate(Math.max(capacity, INITIAL_BUFFER_SIZE));
+  }
+
+  /** Returns a buffer to the pool, unless it is large or the pool is full. */
+  private static <T extends Buffer> void release(Queue<T> pool, T buffer) {
+    if (buffer.capacity() <= MAPPED_FILE_SIZE) {
+      pool.offer(buffer);
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package com.coveo;
+
+import com.google.common.collect.RangeSet;
+import java.io.File;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * State of a file going through the formatting pipeline. Stages run one after the other and hand
+ * the instance over through a {@link java.util.concurrent.CompletableFuture}, which safely
+ * publishes the fields to the thread running the next stage.
+ */
+final class SourceFile {
+
+  final File file;
+
+  /** The content of the file, or null until it is read. */
+  String input;
+
+  /** The 0-based indexes of the lines to format, or null to format the whole file. */
+  RangeSet<Integer> lines;
+
+  /**
+   * The attributes of the file before it was read, when it is recorded in the {@link
+   * SourceSnapshot}, or null.
+   */
+  BasicFileAttributes attributes;
+
+  /** The size of the file, in bytes. */
+  long inputBytes;
+
+  /** The hash of the content when the cache is in use. */
+  String hash;
+
+  /** The key of the content in the {@link FormattedContentStore}, when it is in use. */
+  String storeKey;
+
+  /** Whether the outcome of formatting the content was found in the store. */
+  boolean fromStore;
+
+  /** Whether the file is already formatted. */
+  boolean compliant;
+
+  /** The formatted content of a non-complying file, or null if it was not computed. */
+  String formatted;
+
+  /** Whether the formatted content was written to the file. */
+  boolean written;
+
+  final PhaseTimer timer = new PhaseTimer();
+
+  SourceFile(File file) {
+    this.file = file;
+  }
+
+  FileResult toResult(FileResult.Status status, long outputBytes) {
+    return new FileResult(
+        file, status, timer.total(), inputBytes, outputBytes, written, timer.toArray());
+  }
+}
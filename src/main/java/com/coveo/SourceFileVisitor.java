@@ -0,0 +1,92 @@
+package com.coveo;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Walks a source tree and hands every accepted file to a consumer as soon as it is found, so that
+ * formatting starts while the walk is still in progress. The attributes read by the walk are reused
+ * instead of querying the file system again for each path.
+ */
+class SourceFileVisitor extends SimpleFileVisitor<Path> {
+
+  private final Path root;
+  private final Predicate<Path> directoryFilter;
+  private final Predicate<Path> fileFilter;
+  private final BiConsumer<Path, BasicFileAttributes> consumer;
+  private final BooleanSupplier stopped;
+
+  /**
+   * @param root the root of the walk, which is never pruned
+   * @param directoryFilter accepts the directories to descend into
+   * @param fileFilter accepts the files to hand to the consumer
+   * @param consumer receives the accepted files and their attributes
+   */
+  SourceFileVisitor(
+      Path root,
+      Predicate<Path> directoryFilter,
+      Predicate<Path> fileFilter,
+      BiConsumer<Path, BasicFileAttributes> consumer) {
+    this(root, directoryFilter, fileFilter, consumer, () -> false);
+  }
+
+  /**
+   * @param root the root of the walk, which is never pruned
+   * @param directoryFilter accepts the directories to descend into
+   * @param fileFilter accepts the files to hand to the consumer
+   * @param consumer receives the accepted files and their attributes
+   * @param stopped tells when the rest of the walk is no longer needed
+   */
+  SourceFileVisitor(
+      Path root,
+      Predicate<Path> directoryFilter,
+      Predicate<Path> fileFilter,
+      BiConsumer<Path, BasicFileAttributes> consumer,
+      BooleanSupplier stopped) {
+    this.root = root;
+    this.directoryFilter = directoryFilter;
+    this.fileFilter = fileFilter;
+    this.consumer = consumer;
+    this.stopped = stopped;
+  }
+
+  @Override
+  public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+    if (stopped.getAsBoolean()) {
+      return FileVisitResult.TERMINATE;
+    }
+    if (dir.equals(root) || directoryFilter.test(dir)) {
+      return FileVisitResult.CONTINUE;
+    }
+    return FileVisitResult.SKIP_SUBTREE;
+  }
+
+  @Override
+  public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+    if (stopped.getAsBoolean()) {
+      return FileVisitResult.TERMINATE;
+    }
+    BasicFileAttributes fileAttrs = attrs.isSymbolicLink() ? linkTargetAttributes(file) : attrs;
+    if (fileAttrs != null && fileAttrs.isRegularFile() && fileFilter.test(file)) {
+      consumer.accept(file, fileAttrs);
+    }
+    return FileVisitResult.CONTINUE;
+  }
+
+  private static BasicFileAttributes linkTargetAttributes(Path file) {
+    // Links are not followed by the walk, so their attributes describe the link itself.
+    try {
+      return Files.readAttributes(file, BasicFileAttributes.class);
+    } catch (IOException e) {
+      // A dangling link.
+      return null;
+    }
+  }
+}
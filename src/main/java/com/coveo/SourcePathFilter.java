@@ -0,0 +1,113 @@
+package com.coveo;
+
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Include and exclude patterns matched against paths relative to a source directory. Patterns use
+ * the {@link FileSystem#getPathMatcher(String)} syntax, a pattern without a <code>glob:</code> or
+ * <code>regex:</code> prefix being a glob. A leading <code>**&#47;</code> in a glob also matches
+ * zero directories, so <code>**&#47;generated/**</code> excludes a top-level <code>generated
+ * </code> directory too.
+ *
+ * <p>Patterns are compiled once and the filter is safe to share between threads.
+ */
+final class SourcePathFilter {
+
+  private static final String GLOB = "glob:";
+  private static final String REGEX = "regex:";
+
+  private final List<PathMatcher> includes;
+  private final List<PathMatcher> excludes;
+  private final List<PathMatcher> excludedDirectories;
+
+  private SourcePathFilter(
+      List<PathMatcher> includes,
+      List<PathMatcher> excludes,
+      List<PathMatcher> excludedDirectories) {
+    this.includes = includes;
+    this.excludes = excludes;
+    this.excludedDirectories = excludedDirectories;
+  }
+
+  /**
+   * Compiles the given patterns.
+   *
+   * @param includes the patterns of the files to include, or null or empty to include every file
+   * @param excludes the patterns of the files to exclude, or null; a glob ending in <code>/**
+   *     </code> also excludes the directory without walking it
+   * @return the filter
+   */
+  static SourcePathFilter of(String[] includes, String[] excludes) {
+    FileSystem fileSystem = FileSystems.getDefault();
+    List<PathMatcher> includeMatchers = new ArrayList<>();
+    for (String include : nonNull(includes)) {
+      includeMatchers.addAll(compile(fileSystem, include));
+    }
+    List<PathMatcher> excludeMatchers = new ArrayList<>();
+    List<PathMatcher> excludedDirectoryMatchers = new ArrayList<>();
+    for (String exclude : nonNull(excludes)) {
+      List<PathMatcher> matchers = compile(fileSystem, exclude);
+      excludeMatchers.addAll(matchers);
+      // "dir/**" matches everything below dir, so dir itself does not need to be walked. Other
+      // patterns may match a directory name without excluding what it contains.
+      if (isGlob(exclude) && exclude.endsWith("/**")) {
+        String stem = exclude.substring(0, exclude.length() - "/**".length());
+        excludedDirectoryMatchers.addAll(compile(fileSystem, stem));
+      }
+    }
+    return new SourcePathFilter(includeMatchers, excludeMatchers, excludedDirectoryMatchers);
+  }
+
+  /**
+   * @param relativePath the path of a file relative to the source directory
+   * @return true if the file is included and not excluded
+   */
+  boolean acceptsFile(Path relativePath) {
+    return (includes.isEmpty() || matchesAny(includes, relativePath))
+        && !matchesAny(excludes, relativePath);
+  }
+
+  /**
+   * @param relativePath the path of a directory relative to the source directory
+   * @return false if the whole directory is excluded and does not need to be walked
+   */
+  boolean acceptsDirectory(Path relativePath) {
+    return !matchesAny(excludedDirectories, relativePath);
+  }
+
+  private static boolean matchesAny(List<PathMatcher> matchers, Path path) {
+    for (PathMatcher matcher : matchers) {
+      if (matcher.matches(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean isGlob(String pattern) {
+    return !pattern.startsWith(REGEX);
+  }
+
+  private static List<PathMatcher> compile(FileSystem fileSystem, String pattern) {
+    if (!isGlob(pattern)) {
+      return Collections.singletonList(fileSystem.getPathMatcher(pattern));
+    }
+    String glob = pattern.startsWith(GLOB) ? pattern.substring(GLOB.length()) : pattern;
+    List<PathMatcher> matchers = new ArrayList<>();
+    matchers.add(fileSystem.getPathMatcher(GLOB + glob));
+    if (glob.startsWith("**/")) {
+      matchers.add(fileSystem.getPathMatcher(GLOB + glob.substring("**/".length())));
+    }
+    return matchers;
+  }
+
+  private static String[] nonNull(String[] patterns) {
+    return patterns != null ? patterns : new String[0];
+  }
+}
@@ -0,0 +1,178 @@
+package com.coveo;
+
+import com.google.common.base.Charsets;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * On-disk record of the size and modification time of the source files found compliant by the last
+ * run. A file that still has the recorded size and modification time has not been written since, so
+ * it can be skipped without even being read, unlike with {@link FormattingCache}.
+ *
+ * <p>The first line of the snapshot file holds the signature of the formatter configuration, then
+ * each line holds the size, the modification time in nanoseconds and the absolute path of a file.
+ */
+final class SourceSnapshot {
+
+  /** The coarsest modification time resolution of common file systems, which is FAT's. */
+  private static final long TIMESTAMP_RESOLUTION_MILLIS = 2000;
+
+  private final Path file;
+  private final String signature;
+  private final Map<String, String> previous = new HashMap<>();
+  private final Map<String, String> current = new ConcurrentHashMap<>();
+  private final Map<String, String> recent = new ConcurrentHashMap<>();
+  private final Set<String> looked = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger hits = new AtomicInteger();
+
+  private SourceSnapshot(Path file, String signature) {
+    this.file = file;
+    this.signature = signature;
+  }
+
+  /**
+   * Loads the snapshot stored in the given file, or an empty one if the file is missing or was
+   * written for another configuration.
+   *
+   * @param file the snapshot file
+   * @param signature the signature of the current configuration
+   * @return the snapshot
+   * @throws IOException if the snapshot file exists but cannot be read
+   */
+  static SourceSnapshot load(Path file, String signature) throws IOException {
+    SourceSnapshot snapshot = empty(file, signature);
+    try (BufferedReader reader = Files.newBufferedReader(file, Charsets.UTF_8)) {
+      if (signature.equals(reader.readLine())) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          int pathStart = line.indexOf('\t', line.indexOf('\t') + 1);
+          if (pathStart > 0) {
+            snapshot.previous.put(line.substring(pathStart + 1), line.substring(0, pathStart));
+          }
+        }
+      }
+    } catch (NoSuchFileException e) {
+      // First run, nothing recorded yet.
+    }
+    return snapshot;
+  }
+
+  /**
+   * Creates an empty snapshot that will be written to the given file.
+   *
+   * @param file the snapshot file
+   * @param signature the signature of the current configuration
+   * @return the snapshot
+   */
+  static SourceSnapshot empty(Path file, String signature) {
+    return new SourceSnapshot(file, signature);
+  }
+
+  /**
+   * Whether a file still has the size and modification time it had when it was found compliant. A
+   * hit keeps the entry in the snapshot written by {@link #save()}.
+   *
+   * @param path the file
+   * @param attributes the current attributes of the file
+   * @return true if the file does not need formatting
+   */
+  boolean isUnchanged(Path path, BasicFileAttributes attributes) {
+    String key = key(path);
+    String stamp = stamp(attributes);
+    looked.add(key);
+    if (stamp.equals(previous.get(key))) {
+      current.put(key, stamp);
+      hits.incrementAndGet();
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Records a file as compliant. A file modified too recently to be told apart from a later write
+   * with the same size is only recorded by {@link #save()}, if it still has the same stamp and is
+   * old enough by then.
+   *
+   * @param path the file
+   * @param attributes the attributes of the file, read before its content was or right after it was
+   *     rewritten
+   */
+  void markCompliant(Path path, BasicFileAttributes attributes) {
+    String key = key(path);
+    looked.add(key);
+    if (isOldEnough(attributes)) {
+      current.put(key, stamp(attributes));
+    } else {
+      recent.put(key, stamp(attributes));
+    }
+  }
+
+  int getHits() {
+    return hits.get();
+  }
+
+  /**
+   * Writes the files hit or recorded during this run, and the files of the previous snapshot this
+   * run did not look at that still exist, replacing the snapshot file atomically.
+   *
+   * @throws IOException if the snapshot cannot be written
+   */
+  void save() throws IOException {
+    for (Map.Entry<String, String> entry : recent.entrySet()) {
+      Path path = Paths.get(entry.getKey());
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        if (isOldEnough(attributes) && stamp(attributes).equals(entry.getValue())) {
+          current.put(entry.getKey(), entry.getValue());
+        }
+      } catch (NoSuchFileException e) {
+        // Deleted since it was recorded.
+      }
+    }
+    for (Map.Entry<String, String> entry : previous.entrySet()) {
+      if (!looked.contains(entry.getKey()) && Files.exists(Paths.get(entry.getKey()))) {
+        current.putIfAbsent(entry.getKey(), entry.getValue());
+      }
+    }
+    AtomicFiles.write(
+        file,
+        out -> {
+          BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8));
+          writer.write(signature);
+          writer.newLine();
+          for (Map.Entry<String, String> entry : current.entrySet()) {
+            writer.write(entry.getValue());
+            writer.write('\t');
+            writer.write(entry.getKey());
+            writer.newLine();
+          }
+          writer.flush();
+        });
+  }
+
+  private static boolean isOldEnough(BasicFileAttributes attributes) {
+    long age = System.currentTimeMillis() - attributes.lastModifiedTime().toMillis();
+    return age >= TIMESTAMP_RESOLUTION_MILLIS;
+  }
+
+  private static String key(Path path) {
+    return path.toAbsolutePath().normalize().toString();
+  }
+
+  private static String stamp(BasicFileAttributes attributes) {
+    return attributes.size() + "\t" + attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+  }
+}
@@ -0,0 +1,184 @@
+package com.coveo;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Watches source trees for files that are created or modified. A {@link WatchService} only watches
+ * the directories registered with it, so every directory of the trees is registered, including
+ * directories created while watching.
+ *
+ * <p>Editors usually touch a file several times when saving it, so changes are returned in batches
+ * once the trees have been quiet for a moment.
+ */
+final class SourceWatcher implements AutoCloseable {
+
+  private final WatchService service;
+  private final FormattingLog log;
+  private final Map<WatchKey, Path> directories = new HashMap<>();
+
+  private SourceWatcher(WatchService service, FormattingLog log) {
+    this.service = service;
+    this.log = log;
+  }
+
+  /**
+   * Starts watching the given trees.
+   *
+   * @param roots the roots of the trees
+   * @param log where directories created while watching that cannot be watched are reported
+   * @return the watcher
+   * @throws IOException if a directory cannot be watched
+   */
+  static SourceWatcher watch(Collection<Path> roots, FormattingLog log) throws IOException {
+    SourceWatcher watcher = new SourceWatcher(FileSystems.getDefault().newWatchService(), log);
+    try {
+      for (Path root : roots) {
+        watcher.register(root, null);
+      }
+    } catch (IOException e) {
+      watcher.close();
+      throw e;
+    }
+    return watcher;
+  }
+
+  /** @return the number of directories watched */
+  int getDirectoryCount() {
+    return directories.size();
+  }
+
+  /**
+   * Waits for files to change, then for the trees to be quiet for the given time.
+   *
+   * @param quietMillis how long no change must happen before the batch is returned
+   * @return the files created or modified, which may have been deleted since
+   * @throws InterruptedException if interrupted while waiting for the first change
+   */
+  Set<Path> awaitChanges(long quietMillis) throws InterruptedException {
+    Set<Path> changed = new LinkedHashSet<>();
+    WatchKey key = service.take();
+    while (key != null) {
+      collect(key, changed);
+      key = service.poll(quietMillis, TimeUnit.MILLISECONDS);
+    }
+    return changed;
+  }
+
+  @Override
+  public void close() {
+    try {
+      service.close();
+    } catch (IOException e) {
+      // Nothing left to release.
+    }
+  }
+
+  /**
+   * Adds the files changed in the directory of a key. A directory that cannot be listed or watched
+   * is reported and skipped, so that the other changes of the batch are still formatted.
+   */
+  private void collect(WatchKey key, Set<Path> changed) {
+    Path directory = directories.get(key);
+    for (WatchEvent<?> event : key.pollEvents()) {
+      if (directory == null) {
+        continue;
+      }
+      WatchEvent.Kind<?> kind = event.kind();
+      if (kind == StandardWatchEventKinds.OVERFLOW) {
+        // Events were lost, every file of the directory may have changed.
+        try {
+          addFiles(directory, changed);
+        } catch (IOException e) {
+          log.warn("Could not list the files of '" + directory + "': " + e.getMessage());
+        }
+        continue;
+      }
+      Path path = directory.resolve((Path) event.context());
+      if (kind == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+        // Files may have been created before the directory was registered.
+        try {
+          register(path, changed);
+        } catch (IOException e) {
+          log.warn("Could not watch new directory '" + path + "': " + e.getMessage());
+        }
+      } else {
+        changed.add(path);
+      }
+    }
+    if (!key.reset()) {
+      directories.remove(key);
+    }
+  }
+
+  /**
+   * Registers a tree. When it is created while watching, its existing files are added to the given
+   * set, and directories that cannot be watched are reported rather than failing the batch.
+   *
+   * @param files the set to add the files of a new tree to, or null when watching starts
+   */
+  private void register(Path root, Set<Path> files) throws IOException {
+    Files.walkFileTree(
+        root,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes)
+              throws IOException {
+            try {
+              directories.put(
+                  dir.register(
+                      service,
+                      StandardWatchEventKinds.ENTRY_CREATE,
+                      StandardWatchEventKinds.ENTRY_MODIFY),
+                  dir);
+            } catch (IOException e) {
+              if (files == null) {
+                throw e;
+              }
+              // Its files are still formatted once, but later changes are missed.
+              log.warn("Could not watch new directory '" + dir + "': " + e.getMessage());
+            }
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+            if (files == null) {
+              throw e;
+            }
+            log.warn("Could not watch new directory '" + file + "': " + e.getMessage());
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+            if (files != null && attributes.isRegularFile()) {
+              files.add(file);
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+  }
+
+  private static void addFiles(Path directory, Set<Path> files) throws IOException {
+    try (Stream<Path> children = Files.list(directory)) {
+      children.filter(Files::isRegularFile).forEach(files::add);
+    }
+  }
+}
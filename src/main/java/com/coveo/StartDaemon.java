@@ -0,0 +1,131 @@
+package com.coveo;
+
+import com.google.googlejavaformat.java.JavaFormatterOptions;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Starts a {@link FormattingDaemon} in a background JVM, unless one is already running. The other
+ * goals use it when <code>useDaemon</code> is set.
+ */
+@Mojo(name = "start-daemon", requiresProject = false, threadSafe = true)
+public class StartDaemon extends AbstractMojo {
+
+  private static final long START_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+  private static final long POLL_INTERVAL_MILLIS = 100;
+
+  /** The packages of javac that google-java-format needs on Java 16 and later. */
+  private static final String[] JAVAC_PACKAGES = {"api", "code", "file", "parser", "tree", "util"};
+
+  /** Where the daemon publishes its port and token. */
+  @Parameter(
+      defaultValue = "${user.home}/.m2/fmt-maven-plugin",
+      property = "fmt.daemonDirectory",
+      required = true)
+  private File daemonDirectory;
+
+  /** Minutes without any build connected after which the daemon stops. */
+  @Parameter(defaultValue = "180", property = "fmt.daemonIdleTimeout")
+  private long daemonIdleTimeout;
+
+  @Override
+  public void execute() throws MojoExecutionException, MojoFailureException {
+    Path stateFile = DaemonProtocol.stateFile(daemonDirectory);
+    if (isRunning(stateFile)) {
+      getLog().info("Formatting daemon is already running");
+      return;
+    }
+    Path logFile = Paths.get(stateFile.toString().replaceFirst("\\.properties$", ".log"));
+    Process process;
+    try {
+      Files.createDirectories(daemonDirectory.toPath());
+      process =
+          new ProcessBuilder(command(stateFile))
+              .redirectErrorStream(true)
+              .redirectOutput(ProcessBuilder.Redirect.appendTo(logFile.toFile()))
+              .start();
+    } catch (IOException e) {
+      throw new MojoExecutionException("Could not start the formatting daemon", e);
+    }
+    long deadline = System.currentTimeMillis() + START_TIMEOUT_MILLIS;
+    while (System.currentTimeMillis() < deadline) {
+      if (isRunning(stateFile)) {
+        getLog().info("Started formatting daemon, state in '" + stateFile + "'");
+        return;
+      }
+      if (!process.isAlive()) {
+        throw new MojoFailureException(
+            "The formatting daemon exited with code "
+                + process.exitValue()
+                + ", see '"
+                + logFile
+                + "'");
+      }
+      try {
+        Thread.sleep(POLL_INTERVAL_MILLIS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    process.destroy();
+    throw new MojoFailureException("The formatting daemon did not start, see '" + logFile + "'");
+  }
+
+  private List<String> command(Path stateFile) throws IOException {
+    List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+    if (!System.getProperty("java.specification.version").startsWith("1.")) {
+      for (String javacPackage : JAVAC_PACKAGES) {
+        command.add("--add-exports");
+        command.add("jdk.compiler/com.sun.tools.javac." + javacPackage + "=ALL-UNNAMED");
+      }
+    }
+    command.add("-cp");
+    command.add(classPath());
+    command.add(FormattingDaemon.class.getName());
+    command.add(stateFile.toString());
+    command.add(Long.toString(daemonIdleTimeout));
+    return command;
+  }
+
+  /** The class path of the plugin, i.e. the plugin and its dependencies. */
+  private static String classPath() throws IOException {
+    ClassLoader loader = FormattingDaemon.class.getClassLoader();
+    if (!(loader instanceof URLClassLoader)) {
+      return System.getProperty("java.class.path");
+    }
+    List<String> entries = new ArrayList<>();
+    try {
+      for (URL url : ((URLClassLoader) loader).getURLs()) {
+        entries.add(Paths.get(url.toURI()).toString());
+      }
+    } catch (URISyntaxException | IllegalArgumentException e) {
+      throw new IOException("Cannot compute the class path of the plugin", e);
+    }
+    return String.join(File.pathSeparator, entries);
+  }
+
+  static boolean isRunning(Path stateFile) {
+    try {
+      DaemonClient.connect(stateFile, JavaFormatterOptions.Style.GOOGLE, false).close();
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+}
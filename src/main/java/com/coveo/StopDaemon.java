@@ -0,0 +1,31 @@
+package com.coveo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/** Stops the {@link FormattingDaemon} started by the <code>start-daemon</code> goal. */
+@Mojo(name = "stop-daemon", requiresProject = false, threadSafe = true)
+public class StopDaemon extends AbstractMojo {
+
+  /** Where the daemon publishes its port and token. */
+  @Parameter(
+      defaultValue = "${user.home}/.m2/fmt-maven-plugin",
+      property = "fmt.daemonDirectory",
+      required = true)
+  private File daemonDirectory;
+
+  @Override
+  public void execute() {
+    Path stateFile = DaemonProtocol.stateFile(daemonDirectory);
+    try {
+      DaemonClient.stop(stateFile);
+      getLog().info("Stopped formatting daemon");
+    } catch (IOException e) {
+      getLog().info("No formatting daemon is running");
+    }
+  }
+}
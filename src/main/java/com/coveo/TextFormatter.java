@@ -0,0 +1,61 @@
+package com.coveo;
+
+/**
+ * Formats any text file: removes the spaces and tabs at the end of lines and makes the file end
+ * with exactly one line separator. Line separators are otherwise kept as they are, and the one
+ * added at the end of the file is the first one found in it. Instances are stateless and safe to
+ * share between threads.
+ */
+final class TextFormatter implements FormatterEngine {
+
+  @Override
+  public String getId() {
+    return FormatterEngines.TEXT;
+  }
+
+  @Override
+  public String format(String input) {
+    if (input.isEmpty()) {
+      return input;
+    }
+    StringBuilder formatted = new StringBuilder(input.length() + 1);
+    String separator = null;
+    int lineStart = 0;
+    while (lineStart < input.length()) {
+      int newline = input.indexOf('\n', lineStart);
+      int contentEnd = newline < 0 ? input.length() : newline;
+      boolean crlf = contentEnd > lineStart && input.charAt(contentEnd - 1) == '\r';
+      if (crlf) {
+        contentEnd--;
+      }
+      int end = contentEnd;
+      while (end > lineStart && isBlank(input.charAt(end - 1))) {
+        end--;
+      }
+      formatted.append(input, lineStart, end);
+      if (newline < 0) {
+        break;
+      }
+      String lineSeparator = crlf ? "\r\n" : "\n";
+      if (separator == null) {
+        separator = lineSeparator;
+      }
+      formatted.append(lineSeparator);
+      lineStart = newline + 1;
+    }
+    // Blank lines at the end of the file are dropped, then a single separator ends the last line.
+    int end = formatted.length();
+    while (end > 0 && (formatted.charAt(end - 1) == '\n' || formatted.charAt(end - 1) == '\r')) {
+      end--;
+    }
+    formatted.setLength(end);
+    if (end > 0) {
+      formatted.append(separator != null ? separator : "\n");
+    }
+    return formatted.toString();
+  }
+
+  private static boolean isBlank(char c) {
+    return c == ' ' || c == '\t';
+  }
+}
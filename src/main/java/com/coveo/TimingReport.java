@@ -0,0 +1,172 @@
+package com.coveo;
+
+import com.google.common.base.Charsets;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Summary of the time spent on each file: the slowest files with the breakdown of their phases, and
+ * latency percentiles. It can be logged or written as JSON or CSV.
+ */
+final class TimingReport {
+
+  static final String JSON = "json";
+  static final String CSV = "csv";
+
+  private static final double[] PERCENTILES = {50, 90, 99};
+
+  /** Results sorted from the slowest to the fastest. */
+  private final List<FileResult> results;
+
+  private TimingReport(List<FileResult> results) {
+    this.results = results;
+  }
+
+  static TimingReport of(FormattingResults formattingResults) {
+    List<FileResult> results = new ArrayList<>();
+    for (FileResult result : formattingResults.getResults()) {
+      if (result.getStatus() != FileResult.Status.SKIPPED) {
+        results.add(result);
+      }
+    }
+    results.sort(Comparator.comparingLong(FileResult::getDurationNanos).reversed());
+    return new TimingReport(results);
+  }
+
+  /**
+   * @param format a report format
+   * @return true if the format is supported by {@link #write(Path, String)}
+   */
+  static boolean isSupportedFormat(String format) {
+    return JSON.equalsIgnoreCase(format) || CSV.equalsIgnoreCase(format);
+  }
+
+  /**
+   * Logs the slowest files and the latency percentiles.
+   *
+   * @param log the log
+   * @param slowestFiles the number of slowest files to list
+   */
+  void log(Log log, int slowestFiles) {
+    if (results.isEmpty()) {
+      return;
+    }
+    log.info("Slowest files:");
+    for (FileResult result : results.subList(0, Math.min(slowestFiles, results.size()))) {
+      StringBuilder phases = new StringBuilder();
+      for (FileResult.Phase phase : FileResult.Phase.values()) {
+        if (phases.length() > 0) {
+          phases.append(", ");
+        }
+        phases.append(phase.getLabel()).append(' ').append(millis(result.getPhaseNanos(phase)));
+      }
+      log.info(
+          String.format(
+              "  %s  %s (%s)", millis(result.getDurationNanos()), result.getFile(), phases));
+    }
+    StringBuilder latencies = new StringBuilder("File latency:");
+    for (double percentile : PERCENTILES) {
+      latencies
+          .append(String.format(Locale.ROOT, " p%.0f ", percentile))
+          .append(millis(percentile(percentile)))
+          .append(',');
+    }
+    latencies.append(" max ").append(millis(results.get(0).getDurationNanos()));
+    log.info(latencies);
+  }
+
+  /**
+   * Returns the duration under which the given percentage of files were processed.
+   *
+   * @param percentile the percentage, between 0 and 100
+   * @return the duration in nanoseconds, or 0 if no file was processed
+   */
+  long percentile(double percentile) {
+    if (results.isEmpty()) {
+      return 0;
+    }
+    int rank = (int) Math.ceil(percentile / 100 * results.size());
+    int index = Math.max(0, Math.min(results.size() - 1, rank - 1));
+    return results.get(results.size() - 1 - index).getDurationNanos();
+  }
+
+  /**
+   * Writes the timing of every file.
+   *
+   * @param file the report file
+   * @param format {@value #JSON} or {@value #CSV}
+   * @throws IOException if the report cannot be written
+   */
+  void write(Path file, String format) throws IOException {
+    AtomicFiles.write(
+        file,
+        out -> {
+          Writer writer = new OutputStreamWriter(out, Charsets.UTF_8);
+          if (JSON.equalsIgnoreCase(format)) {
+            writeJson(writer);
+          } else {
+            writeCsv(writer);
+          }
+          writer.flush();
+        });
+  }
+
+  private void writeJson(Writer writer) throws IOException {
+    writer.write("{\n  \"percentiles\": {");
+    for (double percentile : PERCENTILES) {
+      writer.write(
+          String.format(Locale.ROOT, "\"p%.0f\": %d, ", percentile, percentile(percentile)));
+    }
+    writer.write("\"max\": " + (results.isEmpty() ? 0 : results.get(0).getDurationNanos()));
+    writer.write("},\n  \"files\": [");
+    String separator = "\n";
+    for (FileResult result : results) {
+      writer.write(separator);
+      writer.write("    {\"path\": " + Json.quote(result.getFile().getPath()));
+      writer.write(", \"status\": " + Json.quote(result.getStatus().name()));
+      writer.write(", \"durationNanos\": " + result.getDurationNanos());
+      writer.write(", \"inputBytes\": " + result.getInputBytes());
+      writer.write(", \"outputBytes\": " + result.getOutputBytes());
+      writer.write(", \"phaseNanos\": {");
+      String phaseSeparator = "";
+      for (FileResult.Phase phase : FileResult.Phase.values()) {
+        writer.write(
+            phaseSeparator + Json.quote(phase.name()) + ": " + result.getPhaseNanos(phase));
+        phaseSeparator = ", ";
+      }
+      writer.write("}}");
+      separator = ",\n";
+    }
+    writer.write("\n  ]\n}\n");
+  }
+
+  private void writeCsv(Writer writer) throws IOException {
+    writer.write("path,status,duration_nanos,input_bytes,output_bytes");
+    for (FileResult.Phase phase : FileResult.Phase.values()) {
+      writer.write("," + phase.name().toLowerCase(Locale.ROOT) + "_nanos");
+    }
+    writer.write("\n");
+    for (FileResult result : results) {
+      writer.write('"' + result.getFile().getPath().replace("\"", "\"\"") + '"');
+      writer.write("," + result.getStatus());
+      writer.write("," + result.getDurationNanos());
+      writer.write("," + result.getInputBytes());
+      writer.write("," + result.getOutputBytes());
+      for (FileResult.Phase phase : FileResult.Phase.values()) {
+        writer.write("," + result.getPhaseNanos(phase));
+      }
+      writer.write("\n");
+    }
+  }
+
+  private static String millis(long nanos) {
+    return String.format(Locale.ROOT, "%.1f ms", nanos / 1e6);
+  }
+}
@@ -0,0 +1,162 @@
+package com.coveo;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Watch mojo that reformats source files as soon as they change, until the build is interrupted.
+ * Only the changed files are formatted, with a formatter that stays warm between changes.
+ */
+@Mojo(name = "watch", threadSafe = true)
+public class Watch extends FMT {
+
+  private static final int WARM_UP_ITERATIONS = 20;
+
+  /** Milliseconds without any change before the files changed so far are formatted. */
+  @Parameter(defaultValue = "50", property = "fmt.watchQuietPeriod")
+  private long watchQuietPeriod;
+
+  /** The content last written to each file, to ignore the changes made by the mojo itself. */
+  private final Map<Path, String> written = new ConcurrentHashMap<>();
+
+  private final CountDownLatch watching = new CountDownLatch(1);
+
+  /** The watch never ends, so only the number of files of each status is kept. */
+  @Override
+  boolean keepsFileResults() {
+    return false;
+  }
+
+  @Override
+  void formatModules(List<ModuleSources> modules, FormatterRouter router)
+      throws MojoFailureException {
+    FormatterEngine defaultEngine = router.getDefaultEngine();
+    if (defaultEngine instanceof JavaSourceFormatter) {
+      ((JavaSourceFormatter) defaultEngine).warmUp(WARM_UP_ITERATIONS);
+    }
+    Map<Path, ModuleSources> modulesByRoot = new LinkedHashMap<>();
+    Map<Path, Predicate<Path>> filtersByRoot = new LinkedHashMap<>();
+    for (ModuleSources module : modules) {
+      for (File directory : module.directories) {
+        Path root = directory.toPath().toAbsolutePath();
+        modulesByRoot.put(root, module);
+        filtersByRoot.put(root, sourceFileFilter(root));
+      }
+    }
+    try (SourceWatcher watcher = SourceWatcher.watch(modulesByRoot.keySet(), formattingLog())) {
+      getLog()
+          .info(
+              "Watching "
+                  + watcher.getDirectoryCount()
+                  + " directories for changes, press Ctrl-C to stop.");
+      watching.countDown();
+      while (!Thread.currentThread().isInterrupted()) {
+        Set<Path> changed = watcher.awaitChanges(watchQuietPeriod);
+        long start = System.nanoTime();
+        // Each batch has its own results, which are dropped once logged.
+        FormattingResults batch = new FormattingResults();
+        Map<Path, CompletableFuture<FileResult>> pending = new LinkedHashMap<>();
+        for (Path file : changed) {
+          Path root = rootOf(file, modulesByRoot.keySet());
+          if (root != null
+              && filtersByRoot.get(root).test(file)
+              && Files.isRegularFile(file)
+              && !isOwnWrite(file)) {
+            FormatterEngine engine = router.engineFor(root.relativize(file));
+            pending.put(file, formatSourceFile(file.toFile(), engine, batch));
+          }
+        }
+        for (Map.Entry<Path, CompletableFuture<FileResult>> file : pending.entrySet()) {
+          try {
+            file.getValue().join();
+          } catch (CompletionException | CancellationException e) {
+            getLog().error("Could not format file '" + file.getKey() + "'", e);
+          }
+        }
+        if (!pending.isEmpty()) {
+          getLog()
+              .info(
+                  String.format(
+                      "Reformatted %d of %d changed files in %d ms.",
+                      batch.getNonComplyingFilesCount(),
+                      pending.size(),
+                      TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        }
+      }
+    } catch (IOException e) {
+      throw new MojoFailureException("Could not watch the source directories: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  FormatService.Rewrite handleNonComplyingFile(File file, String input, String formatted)
+      throws IOException {
+    // Recorded before writing, since the change may be seen before the write returns.
+    Path path = file.toPath().toAbsolutePath();
+    written.put(path, formatted);
+    FormatService.Rewrite rewrite = super.handleNonComplyingFile(file, input, formatted);
+    if (rewrite != FormatService.Rewrite.WRITTEN) {
+      written.remove(path);
+    }
+    return rewrite;
+  }
+
+  /**
+   * Waits until the source directories are watched.
+   *
+   * @param timeout how long to wait
+   * @param unit the unit of the timeout
+   * @return true if the directories are watched
+   * @throws InterruptedException if interrupted while waiting
+   */
+  boolean awaitWatching(long timeout, TimeUnit unit) throws InterruptedException {
+    return watching.await(timeout, unit);
+  }
+
+  /** Whether the file still has the content written by the mojo, i.e. the change was its own. */
+  private boolean isOwnWrite(Path file) {
+    String content = written.remove(file);
+    if (content == null) {
+      return false;
+    }
+    try {
+      String current = getSourceEncoding().read(file);
+      if (current.startsWith(BYTE_ORDER_MARK)) {
+        current = current.substring(1);
+      }
+      return current.equals(content);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /** The innermost source directory containing the file, or null. */
+  private static Path rootOf(Path file, Set<Path> roots) {
+    Path innermost = null;
+    for (Path root : roots) {
+      if (file.startsWith(root)
+          && (innermost == null || root.getNameCount() > innermost.getNameCount())) {
+        innermost = root;
+      }
+    }
+    return innermost;
+  }
+}
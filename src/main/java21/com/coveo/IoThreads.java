@@ -0,0 +1,109 @@
+package com.coveo;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates the pool running blocking file I/O, on virtual threads unless they are disabled. A file
+ * read or written on a slow filesystem then parks a virtual thread instead of holding one of the
+ * few platform threads, so that many files are in flight at once. Java 21 version of the class of
+ * <code>src/main/java</code>, with the same methods.
+ */
+final class IoThreads {
+
+  /**
+   * I/O tasks that run at once on virtual threads, bounded so that the files open at once stay
+   * well under the usual limit of file descriptors.
+   */
+  private static final int MAX_VIRTUAL_TASKS = 256;
+
+  /**
+   * Runs each task on a new virtual thread, which waits for one of a bounded number of permits
+   * before running it.
+   */
+  private static final class BoundedVirtualThreadExecutor extends AbstractExecutorService {
+
+    private final ExecutorService threads =
+        Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("fmt-io-", 0).factory());
+    private final Semaphore permits = new Semaphore(MAX_VIRTUAL_TASKS);
+
+    @Override
+    public void execute(Runnable task) {
+      threads.execute(
+          () -> {
+            try {
+              permits.acquire();
+            } catch (InterruptedException e) {
+              // Stopped by shutdownNow() before the task started.
+              Thread.currentThread().interrupt();
+              return;
+            }
+            try {
+              task.run();
+            } finally {
+              permits.release();
+            }
+          });
+    }
+
+    @Override
+    public void shutdown() {
+      threads.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return threads.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return threads.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return threads.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+      return threads.awaitTermination(timeout, unit);
+    }
+  }
+
+  private IoThreads() {}
+
+  /** @return whether the runtime supports running file I/O on virtual threads */
+  static boolean supportsVirtualThreads() {
+    return true;
+  }
+
+  /**
+   * @param threads the number of platform threads
+   * @param virtualThreads whether to use virtual threads if the runtime supports them
+   * @return the number of platform threads of the pool, or 0 if it runs on virtual threads
+   */
+  static int platformThreads(int threads, boolean virtualThreads) {
+    return virtualThreads ? 0 : threads;
+  }
+
+  /**
+   * @param threads the number of platform threads
+   * @param virtualThreads whether to use virtual threads if the runtime supports them
+   * @param platformThreads the factory of platform threads
+   * @return the pool
+   */
+  static ExecutorService newExecutor(
+      int threads, boolean virtualThreads, ThreadFactory platformThreads) {
+    if (!virtualThreads) {
+      return Executors.newFixedThreadPool(threads, platformThreads);
+    }
+    return new BoundedVirtualThreadExecutor();
+  }
+}
@@ -1,21 +1,58 @@
 package com.coveo;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
 
+import com.google.common.primitives.Bytes;
+import com.google.googlejavaformat.java.JavaFormatterOptions;
+import java.io.ByteArrayInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.testing.MojoRule;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class FMTTest {
   private static String FORMAT = "format";
   private static String CHECK = "check";
+  private static String CHECK_AGGREGATE = "check-aggregate";
+  private static String WATCH = "watch";
+
+  private static final SourceEncoding UTF_8_SOURCES =
+      new SourceEncoding(StandardCharsets.UTF_8, false);
+  private static final FormattingLog LOG =
+      FormattingLog.of(Logger.getLogger(FMTTest.class.getName()));
 
   @Rule public MojoRule mojoRule = new MojoRule();
 
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
   @Test
   public void noSource() throws Exception {
     FMT fmt = (FMT) mojoRule.lookupConfiguredMojo(loadPom("nosource"), FORMAT);
@@ -76,6 +113,38 @@ public class FMTTest {
     assertThat(lines.get(3)).startsWith("  public");
   }
 
+  @Test
+  public void formatKeepsTheSourceEncoding() throws Exception {
+    FMT fmt = (FMT) mojoRule.lookupConfiguredMojo(loadPom("format_latin1"), FORMAT);
+    fmt.execute();
+
+    assertThat(fmt.getFilesProcessed()).hasSize(1);
+    File file = new File(loadPom("format_latin1"), "src/main/java/Latin.java");
+    String content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.ISO_8859_1);
+    assertThat(content).isEqualTo("class Latin {\n  // caf\u00e9\n  int x;\n}\n");
+  }
+
+  @Test
+  public void withFormatterRoutes() throws Exception {
+    FMT fmt = (FMT) mojoRule.lookupConfiguredMojo(loadPom("simple_routes"), FORMAT);
+    fmt.execute();
+
+    assertThat(fmt.getFilesProcessed()).hasSize(3);
+
+    /* HelloWorld1 is routed to AOSP, the other files keep the Google style */
+    File sources = new File(loadPom("simple_routes"), "src/main/java");
+    List<String> aospLines = Files.readAllLines(new File(sources, "HelloWorld1.java").toPath());
+    assertThat(aospLines.get(3)).startsWith("    public");
+    List<String> googleLines = Files.readAllLines(new File(sources, "HelloWorld2.java").toPath());
+    assertThat(googleLines.get(3)).startsWith("  public");
+  }
+
+  @Test(expected = MojoFailureException.class)
+  public void failsWhenFormatterRouteEngineIsUnknown() throws Exception {
+    FMT fmt = (FMT) mojoRule.lookupConfiguredMojo(loadPom("unknown_formatter_engine"), FORMAT);
+    fmt.execute();
+  }
+
   @Test
   public void failOnUnknownFolderDoesNotFailWhenEverythingIsThere() throws Exception {
     FMT fmt = (FMT) mojoRule.lookupConfiguredMojo(loadPom("failonerrorwithsources"), FORMAT);
@@ -162,13 +231,805 @@ public class FMTTest {
     check.execute();
   }
 
+  @Test
+  public void checkSkipsFilesLargerThanMaxFileSize() throws Exception {
+    Check check =
+        (Check) mojoRule.lookupConfiguredMojo(loadPom("check_notformatted_too_large"), CHECK);
+    check.execute();
+
+    assertThat(check.getResults().count(FileResult.Status.SKIPPED)).isEqualTo(1);
+    assertThat(check.getFilesProcessed()).isEmpty();
+  }
+
+  @Test
+  public void checkSucceedsWhenNotFormattedButExcluded() throws Exception {
+    Check check =
+        (Check) mojoRule.lookupConfiguredMojo(loadPom("check_notformatted_excluded"), CHECK);
+    check.execute();
+
+    assertThat(check.getFilesProcessed()).hasSize(1);
+  }
+
+  @Test
+  public void checkWalksDirectoriesMatchedByAFileExclude() throws Exception {
+    Check check =
+        (Check) mojoRule.lookupConfiguredMojo(loadPom("check_excluded_files_pattern"), CHECK);
+    check.execute();
+
+    assertThat(check.getFilesProcessed()).hasSize(1);
+    assertThat(check.getFilesProcessed().get(0)).contains("nested");
+  }
+
+  @Test
+  public void formatKeepsByteOrderMark() throws Exception {
+    FMT fmt = (FMT) mojoRule.lookupConfiguredMojo(loadPom("format_bom"), FORMAT);
+    fmt.execute();
+
+    assertThat(fmt.getFilesProcessed()).hasSize(1);
+    byte[] bytes =
+        Files.readAllBytes(
+            new File(loadPom("format_bom"), "src/main/java/HelloWorld1.java").toPath());
+    assertThat(Arrays.copyOf(bytes, 3))
+        .isEqualTo(new byte[] {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF});
+  }
+
+  @Test
+  public void rewriteLeavesIdenticalBytesUntouched() throws Exception {
+    Path file = temporaryFolder.newFile("Formatted.java").toPath();
+    String content = "class Formatted {}\n";
+    Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+    FileTime lastModified = FileTime.fromMillis(1_000_000_000L);
+    Files.setLastModifiedTime(file, lastModified);
+
+    assertThat(FormatService.rewrite(file, content, content, UTF_8_SOURCES, LOG))
+        .isEqualTo(FormatService.Rewrite.UNCHANGED);
+    assertThat(Files.getLastModifiedTime(file)).isEqualTo(lastModified);
+  }
+
+  @Test
+  public void rewriteKeepsByteOrderMark() throws Exception {
+    Path file = temporaryFolder.newFile("Bom.java").toPath();
+    byte[] byteOrderMark = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    Files.write(file, Bytes.concat(byteOrderMark, "class Bom{}".getBytes(StandardCharsets.UTF_8)));
+
+    assertThat(FormatService.rewrite(file, "class Bom{}", "class Bom {}\n", UTF_8_SOURCES, LOG))
+        .isEqualTo(FormatService.Rewrite.WRITTEN);
+    assertThat(Files.readAllBytes(file))
+        .isEqualTo(Bytes.concat(byteOrderMark, "class Bom {}\n".getBytes(StandardCharsets.UTF_8)));
+  }
+
+  @Test
+  public void rewriteKeepsPermissions() throws Exception {
+    Path file = temporaryFolder.newFile("Script.java").toPath();
+    Files.write(file, "class Script{}".getBytes(StandardCharsets.UTF_8));
+    Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rwxr-x---");
+    Files.setPosixFilePermissions(file, permissions);
+
+    assertThat(
+            FormatService.rewrite(file, "class Script{}", "class Script {}\n", UTF_8_SOURCES, LOG))
+        .isEqualTo(FormatService.Rewrite.WRITTEN);
+    assertThat(Files.getPosixFilePermissions(file)).isEqualTo(permissions);
+  }
+
+  @Test
+  public void rewriteLeavesFilesChangedSinceTheyWereReadUntouched() throws Exception {
+    Path file = temporaryFolder.newFile("Edited.java").toPath();
+    String edited = "class Edited{int x;}";
+    Files.write(file, edited.getBytes(StandardCharsets.UTF_8));
+
+    assertThat(
+            FormatService.rewrite(file, "class Edited{}", "class Edited {}\n", UTF_8_SOURCES, LOG))
+        .isEqualTo(FormatService.Rewrite.MODIFIED);
+    assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).isEqualTo(edited);
+  }
+
   @Test(expected = MojoFailureException.class)
   public void checkFailsWhenFormattingFails() throws Exception {
     Check check = (Check) mojoRule.lookupConfiguredMojo(loadPom("failed_formatting"), CHECK);
     check.execute();
   }
 
+  @Test
+  public void checkRecordsOutcomeOfEachFile() throws Exception {
+    Check check = (Check) mojoRule.lookupConfiguredMojo(loadPom("check_notformatted"), CHECK);
+    try {
+      check.execute();
+      fail("Expected check to fail on non-complying files");
+    } catch (MojoFailureException expected) {
+    }
+
+    FormattingResults results = check.getResults();
+    assertThat(results.getNonComplyingFiles()).hasSize(1);
+    assertThat(results.getNonComplyingFilesCount()).isEqualTo(1);
+    for (FileResult result : results.getResults()) {
+      assertThat(result.getStatus()).isEqualTo(FileResult.Status.NON_COMPLIANT);
+      assertThat(result.getInputBytes()).isGreaterThan(0L);
+    }
+  }
+
+  @Test
+  public void checkRecordsCompliantFilesInCache() throws Exception {
+    File cacheFile =
+        new File(loadPom("check_formatted_cache"), "target/fmt-maven-plugin/compliant-files.cache");
+    cacheFile.delete();
+
+    Check check = (Check) mojoRule.lookupConfiguredMojo(loadPom("check_formatted_cache"), CHECK);
+    check.execute();
+    assertThat(cacheFile.exists()).isTrue();
+    for (FileResult result : check.getResults().getResults()) {
+      assertThat(result.getPhaseNanos(FileResult.Phase.FORMAT)).isGreaterThan(0L);
+    }
+
+    Check cachedCheck =
+        (Check) mojoRule.lookupConfiguredMojo(loadPom("check_formatted_cache"), CHECK);
+    cachedCheck.execute();
+    assertThat(cachedCheck.getFilesProcessed()).hasSize(1);
+    for (FileResult result : cachedCheck.getResults().getResults()) {
+      assertThat(result.getPhaseNanos(FileResult.Phase.FORMAT)).isEqualTo(0L);
+    }
+  }
+
+  @Test
+  public void cacheDropsHashesNotFoundCompliantForSeveralRuns() throws Exception {
+    Path file = temporaryFolder.getRoot().toPath().resolve("compliant-files.cache");
+    FormattingCache first = FormattingCache.empty(file, "signature");
+    first.markCompliant("kept");
+    first.markCompliant("edited");
+    first.save();
+
+    for (int run = 0; run < FormattingCache.MAX_IDLE_RUNS; run++) {
+      // Runs that do not look at a file keep its hash for a while.
+      assertThat(FormattingCache.load(file, "signature").isCompliant("edited")).isTrue();
+      FormattingCache cache = FormattingCache.load(file, "signature");
+      assertThat(cache.isCompliant("kept")).isTrue();
+      cache.save();
+    }
+
+    FormattingCache last = FormattingCache.load(file, "signature");
+    assertThat(last.isCompliant("kept")).isTrue();
+    assertThat(last.isCompliant("edited")).isFalse();
+  }
+
+  @Test
+  public void checkSkipsFilesUnchangedSinceLastRun() throws Exception {
+    File snapshotFile =
+        new File(
+            loadPom("check_formatted_incremental"),
+            "target/fmt-maven-plugin/compliant-files.snapshot");
+    snapshotFile.delete();
+
+    Check check =
+        (Check) mojoRule.lookupConfiguredMojo(loadPom("check_formatted_incremental"), CHECK);
+    check.execute();
+    assertThat(snapshotFile.exists()).isTrue();
+
+    Check incrementalCheck =
+        (Check) mojoRule.lookupConfiguredMojo(loadPom("check_formatted_incremental"), CHECK);
+    incrementalCheck.execute();
+    assertThat(incrementalCheck.getFilesProcessed()).hasSize(1);
+    for (FileResult result : incrementalCheck.getResults().getResults()) {
+      assertThat(result.getPhaseNanos(FileResult.Phase.READ)).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void checkWritesTimingReport() throws Exception {
+    File report = new File(loadPom("check_timing_report"), "target/fmt-maven-plugin/timings.json");
+    report.delete();
+
+    Check check = (Check) mojoRule.lookupConfiguredMojo(loadPom("check_timing_report"), CHECK);
+    check.execute();
+
+    assertThat(report.exists()).isTrue();
+    String json = new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8);
+    assertThat(json).contains("HelloWorld1.java");
+  }
+
+  @Test
+  public void checkStopsAtFirstNonComplyingFileWithFailFast() throws Exception {
+    Check check = (Check) mojoRule.lookupConfiguredMojo(loadPom("check_fail_fast"), CHECK);
+    try {
+      check.execute();
+      fail("Expected check to fail on non-complying files");
+    } catch (MojoFailureException expected) {
+    }
+
+    // Files already formatting when the check stops are still reported.
+    assertThat(check.getResults().getNonComplyingFilesCount()).isAtLeast(1);
+    assertThat(check.getResults().getNonComplyingFilesCount()).isLessThan(5);
+  }
+
+  @Test
+  public void checkReusesOutcomesFromTheSharedCache() throws Exception {
+    FileUtils.deleteDirectory(new File(loadPom("check_shared_cache"), "target/shared-cache"));
+
+    for (int run = 0; run < 2; run++) {
+      Check check = (Check) mojoRule.lookupConfiguredMojo(loadPom("check_shared_cache"), CHECK);
+      try {
+        check.execute();
+        fail("Expected check to fail on non-complying files");
+      } catch (MojoFailureException expected) {
+      }
+
+      assertThat(check.getResults().getNonComplyingFilesCount()).isEqualTo(1);
+      assertThat(check.getSharedCache().getHits()).isEqualTo(run);
+      assertThat(check.getSharedCache().getMisses()).isEqualTo(1 - run);
+    }
+  }
+
+  @Test
+  public void checkWritesMetricsEvenWhenFailing() throws Exception {
+    File metrics = new File(loadPom("check_metrics"), "target/fmt-maven-plugin/metrics.prom");
+    metrics.delete();
+
+    Check check = (Check) mojoRule.lookupConfiguredMojo(loadPom("check_metrics"), CHECK);
+    try {
+      check.execute();
+      fail("Expected check to fail on non-complying files");
+    } catch (MojoFailureException expected) {
+    }
+
+    String content = new String(Files.readAllBytes(metrics.toPath()), StandardCharsets.UTF_8);
+    assertThat(content).contains("fmt_files_scanned_total{project=\"project-to-test\"} 1");
+    assertThat(content)
+        .contains("fmt_files_total{project=\"project-to-test\",status=\"non_compliant\"} 1");
+    assertThat(content).contains("fmt_phase_duration_seconds_count{project=\"project-to-test\"");
+  }
+
+  @Test
+  @SuppressWarnings("deprecation")
+  public void postExecutePassesTheResultsToTheDeprecatedHook() throws Exception {
+    FormattingResults results = new FormattingResults();
+    results.add(fileResult("Compliant.java", FileResult.Status.COMPLIANT));
+    results.add(fileResult("NonCompliant.java", FileResult.Status.NON_COMPLIANT));
+    results.add(fileResult("Failed.java", FileResult.Status.FAILED));
+    List<Object> received = new ArrayList<>();
+    FMT fmt =
+        new FMT() {
+          @Override
+          protected void postExecute(List<String> filesProcessed, int nonComplyingFiles) {
+            received.add(filesProcessed);
+            received.add(nonComplyingFiles);
+          }
+        };
+    fmt.postExecute(results);
+    assertThat(received)
+        .containsExactly(
+            Arrays.asList(
+                new File("Compliant.java").getAbsolutePath(),
+                new File("NonCompliant.java").getAbsolutePath()),
+            1);
+  }
+
+  @Test
+  public void formattingResultsGiveEachOutcomeItsOwnPosition() throws Exception {
+    FormattingResults results = new FormattingResults();
+    Set<Integer> positions = ConcurrentHashMap.newKeySet();
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Thread thread =
+          new Thread(
+              () -> {
+                for (int j = 0; j < 500; j++) {
+                  positions.add(
+                      results.addCount(fileResult("File.java", FileResult.Status.COMPLIANT)));
+                }
+              });
+      thread.start();
+      threads.add(thread);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertThat(positions).hasSize(2000);
+    assertThat(Collections.max(positions)).isEqualTo(2000);
+    assertThat(results.count(FileResult.Status.COMPLIANT)).isEqualTo(2000);
+  }
+
+  @Test
+  public void metricsCountOnlyTheBytesActuallyWritten() throws Exception {
+    File project = temporaryFolder.newFolder("metrics_written");
+    FileUtils.copyDirectory(loadPom("format_service"), project);
+    Path root = new File(project, "src/main/java").toPath();
+    for (boolean rewrite : new boolean[] {false, true}) {
+      FormattingMetrics metrics = new FormattingMetrics();
+      try (FormatService service =
+          FormatService.create(
+              FormatService.builder().rewrite(rewrite),
+              new FormatServiceHooks().metrics(metrics))) {
+        FormattingResults results = service.formatBatch(Collections.singletonList(root)).join();
+        long written = 0;
+        for (FileResult result : results.getResults()) {
+          assertThat(result.isWritten())
+              .isEqualTo(rewrite && result.getStatus() == FileResult.Status.NON_COMPLIANT);
+          written += result.isWritten() ? result.getOutputBytes() : 0;
+        }
+        assertThat(metrics.getFilesNonCompliant()).isEqualTo(1L);
+        assertThat(metrics.getBytesWritten()).isEqualTo(written);
+        assertThat(written > 0).isEqualTo(rewrite);
+      }
+    }
+  }
+
+  @Test
+  public void checkRoutesOtherFilesToTheirEngines() throws Exception {
+    Check check = (Check) mojoRule.lookupConfiguredMojo(loadPom("check_other_files"), CHECK);
+    try {
+      check.execute();
+      fail("Expected check to fail on non-complying files");
+    } catch (MojoFailureException expected) {
+    }
+
+    // The Markdown code block and the trailing whitespace need formatting, not the properties.
+    assertThat(check.getFilesProcessed()).hasSize(4);
+    assertThat(check.getResults().getNonComplyingFiles()).hasSize(2);
+  }
+
+  @Test
+  public void checkWritesReportsWithDiffs() throws Exception {
+    File reports = new File(loadPom("check_report"), "target/fmt-maven-plugin");
+    for (String name : new String[] {"check.json", "check.sarif", "checkstyle.xml"}) {
+      new File(reports, name).delete();
+    }
+
+    Check check = (Check) mojoRule.lookupConfiguredMojo(loadPom("check_report"), CHECK);
+    try {
+      check.execute();
+      fail("Expected check to fail on non-complying files");
+    } catch (MojoFailureException expected) {
+    }
+
+    String json =
+        new String(
+            Files.readAllBytes(new File(reports, "check.json").toPath()), StandardCharsets.UTF_8);
+    assertThat(json).contains("NON_COMPLIANT");
+    assertThat(json).contains("+  public static void main(String[] args) {");
+    String sarif =
+        new String(
+            Files.readAllBytes(new File(reports, "check.sarif").toPath()), StandardCharsets.UTF_8);
+    assertThat(sarif).contains("\"region\": {\"startLine\": 4, \"endLine\": 6}");
+    String checkstyle =
+        new String(
+            Files.readAllBytes(new File(reports, "checkstyle.xml").toPath()),
+            StandardCharsets.UTF_8);
+    assertThat(checkstyle).contains("<error line=\"4\"");
+  }
+
+  @Test
+  public void checkReportLocatesEachHunk() throws Exception {
+    Path reports = temporaryFolder.newFolder("reports").toPath();
+    CheckReport report =
+        CheckReport.open(reports, new String[] {CheckReport.SARIF, CheckReport.CHECKSTYLE});
+    FileResult result =
+        new FileResult(
+            new File("Report.java"),
+            FileResult.Status.NON_COMPLIANT,
+            0,
+            0,
+            0,
+            false,
+            new long[FileResult.Phase.values().length]);
+    String unchanged = "  int b;\n  int c;\n  int d;\n  int e;\n  int f;\n  int g;\n  int h;\n";
+    report.add(
+        result,
+        "class Report {\nint a;\n" + unchanged + "int i;\n}\n",
+        "class Report {\n  int a;\n" + unchanged + "  int i;\n}\n");
+    report.close();
+
+    String sarif =
+        new String(Files.readAllBytes(reports.resolve("check.sarif")), StandardCharsets.UTF_8);
+    assertThat(sarif).contains("\"region\": {\"startLine\": 2, \"endLine\": 2}");
+    assertThat(sarif).contains("\"region\": {\"startLine\": 10, \"endLine\": 10}");
+    String checkstyle =
+        new String(Files.readAllBytes(reports.resolve("checkstyle.xml")), StandardCharsets.UTF_8);
+    assertThat(checkstyle).contains("<error line=\"2\"");
+    assertThat(checkstyle).contains("<error line=\"10\"");
+  }
+
+  @Test
+  public void checkFallsBackWhenDaemonIsNotRunning() throws Exception {
+    Check check = (Check) mojoRule.lookupConfiguredMojo(loadPom("check_daemon"), CHECK);
+    check.execute();
+
+    assertThat(check.getFilesProcessed()).hasSize(1);
+  }
+
+  @Test
+  public void checkUsesRunningDaemon() throws Exception {
+    File daemonDirectory = new File(loadPom("check_daemon"), "target/daemon");
+    FormattingDaemon daemon =
+        FormattingDaemon.start(
+            DaemonProtocol.stateFile(daemonDirectory), TimeUnit.MINUTES.toNanos(1));
+    try {
+      Check check = (Check) mojoRule.lookupConfiguredMojo(loadPom("check_daemon"), CHECK);
+      check.execute();
+
+      assertThat(check.getFilesProcessed()).hasSize(1);
+      assertThat(daemon.getFilesFormatted()).isEqualTo(1);
+    } finally {
+      daemon.stop();
+    }
+  }
+
+  @Test
+  public void daemonRejectsUnknownStyles() throws Exception {
+    Path stateFile = temporaryFolder.getRoot().toPath().resolve("daemon.properties");
+    FormattingDaemon daemon = FormattingDaemon.start(stateFile, TimeUnit.MINUTES.toNanos(1));
+    Properties state = DaemonProtocol.readState(stateFile);
+    try (Socket socket =
+        new Socket(
+            InetAddress.getLoopbackAddress(),
+            Integer.parseInt(state.getProperty(DaemonProtocol.PORT)))) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeUTF(state.getProperty(DaemonProtocol.TOKEN));
+      out.writeUTF(DaemonProtocol.version());
+      out.writeUTF("UNKNOWN");
+      out.writeBoolean(false);
+      out.flush();
+
+      assertThat(socket.getInputStream().read()).isEqualTo((int) DaemonProtocol.REJECTED);
+    } finally {
+      daemon.stop();
+    }
+  }
+
+  @Test
+  public void daemonClientGivesUpOnAStalledDaemon() throws Exception {
+    Path stateFile = temporaryFolder.getRoot().toPath().resolve("stalled.properties");
+    try (ServerSocket stalled = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+      Files.write(
+          stateFile,
+          Arrays.asList(
+              DaemonProtocol.PORT + "=" + stalled.getLocalPort(), DaemonProtocol.TOKEN + "=0"));
+      try {
+        DaemonClient.connect(stateFile, 100, JavaFormatterOptions.Style.GOOGLE, false);
+        fail("The client waited for a daemon that never answers");
+      } catch (SocketTimeoutException e) {
+        // Expected, the goals format in process.
+      }
+    }
+  }
+
+  @Test
+  public void watchReformatsChangedFiles() throws Exception {
+    Watch watch = (Watch) mojoRule.lookupConfiguredMojo(loadPom("watch"), WATCH);
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                watch.execute();
+              } catch (Exception e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    thread.start();
+    File file = new File(loadPom("watch"), "src/main/java/Changed.java");
+    try {
+      assertThat(watch.awaitWatching(30, TimeUnit.SECONDS)).isTrue();
+      Files.write(file.toPath(), "class Changed {  int x;}\n".getBytes(StandardCharsets.UTF_8));
+
+      String expected = "class Changed {\n  int x;\n}\n";
+      String content = "";
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+      while (!content.equals(expected) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+        content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+      }
+      assertThat(content).isEqualTo(expected);
+    } finally {
+      thread.interrupt();
+      thread.join();
+      file.delete();
+    }
+  }
+
+  @Test
+  public void watchFormatsFilesOfNewPackages() throws Exception {
+    Watch watch = (Watch) mojoRule.lookupConfiguredMojo(loadPom("watch"), WATCH);
+    Thread thread =
+        new Thread(
+            () -> {
+              try {
+                watch.execute();
+              } catch (Exception e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    thread.start();
+    File directory = new File(loadPom("watch"), "src/main/java/created");
+    File file = new File(directory, "Created.java");
+    try {
+      assertThat(watch.awaitWatching(30, TimeUnit.SECONDS)).isTrue();
+      assertThat(directory.mkdir()).isTrue();
+      Files.write(file.toPath(), "class Created {  int x;}\n".getBytes(StandardCharsets.UTF_8));
+
+      String expected = "class Created {\n  int x;\n}\n";
+      String content = "";
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+      while (!content.equals(expected) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+        content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+      }
+      assertThat(content).isEqualTo(expected);
+    } finally {
+      thread.interrupt();
+      thread.join();
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void watcherReportsFilesOfNewDirectories() throws Exception {
+    Path root = temporaryFolder.newFolder("watched").toPath();
+    try (SourceWatcher watcher = SourceWatcher.watch(Collections.singletonList(root), LOG)) {
+      Path file = root.resolve("created/nested/Created.java");
+      Files.createDirectories(file.getParent());
+      Files.write(file, "class Created {}\n".getBytes(StandardCharsets.UTF_8));
+
+      Set<Path> changed = new HashSet<>();
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+      while (!changed.contains(file) && System.currentTimeMillis() < deadline) {
+        changed.addAll(watcher.awaitChanges(50));
+      }
+      assertThat(changed).contains(file);
+      assertThat(watcher.getDirectoryCount()).isEqualTo(3);
+    }
+  }
+
+  @Test
+  public void ratchetFallsBackToAllFilesWhenRefIsUnknown() throws Exception {
+    FMT fmt = (FMT) mojoRule.lookupConfiguredMojo(loadPom("ratchet_unknown_ref"), FORMAT);
+    fmt.execute();
+
+    assertThat(fmt.getFilesProcessed()).hasSize(3);
+  }
+
+  @Test
+  public void ratchetOnlyFormatsFilesChangedSinceRef() throws Exception {
+    File root = loadGitProject("ratchet_changed_files");
+    File sources = new File(root, "src/main/java");
+    Files.write(
+        new File(sources, "Changed.java").toPath(),
+        "class Changed {  int y;}\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(
+        new File(sources, "Untracked.java").toPath(),
+        "class Untracked {  int x;}\n".getBytes(StandardCharsets.UTF_8));
+
+    FMT fmt = (FMT) mojoRule.lookupConfiguredMojo(root, FORMAT);
+    fmt.execute();
+
+    assertThat(fmt.getFilesProcessed()).hasSize(2);
+    assertThat(
+            new String(
+                Files.readAllBytes(new File(sources, "Changed.java").toPath()),
+                StandardCharsets.UTF_8))
+        .isEqualTo("class Changed {\n  int y;\n}\n");
+    assertThat(
+            new String(
+                Files.readAllBytes(new File(sources, "Unchanged.java").toPath()),
+                StandardCharsets.UTF_8))
+        .isEqualTo("class Unchanged {  int x;}\n");
+  }
+
+  @Test
+  public void checkAggregateSkipsPomAndSkippedModules() throws Exception {
+    File root = loadPom("check_aggregate");
+    CheckAggregate check = (CheckAggregate) mojoRule.lookupConfiguredMojo(root, CHECK_AGGREGATE);
+    mojoRule.setVariableValueToObject(
+        check,
+        "reactorProjects",
+        Arrays.asList(
+            mojoRule.readMavenProject(root),
+            mojoRule.readMavenProject(new File(root, "formatted")),
+            mojoRule.readMavenProject(new File(root, "skipped")),
+            mojoRule.readMavenProject(new File(root, "skipped_execution")),
+            mojoRule.readMavenProject(new File(root, "additional"))));
+    check.execute();
+
+    assertThat(check.getFilesProcessed())
+        .containsExactly(
+            new File(root, "formatted/src/main/java/HelloWorld1.java").getAbsolutePath(),
+            new File(root, "additional/src/additional/HelloWorld2.java").getAbsolutePath());
+  }
+
+  @Test(expected = MojoFailureException.class)
+  public void changedLinesOnlyFailsWhenRefIsUnknown() throws Exception {
+    FMT fmt = (FMT) mojoRule.lookupConfiguredMojo(loadPom("changed_lines_unknown_ref"), FORMAT);
+    fmt.execute();
+  }
+
+  @Test
+  public void changedLinesOnlyFormatsTheChangedLines() throws Exception {
+    File root = loadGitProject("changed_lines_only");
+    File sources = new File(root, "src/main/java");
+    // Git quotes this name in diff headers.
+    Path quoted = new File(sources, "Changed \"Lines\".java").toPath();
+    Files.copy(new File(sources, "Changed.java").toPath(), quoted);
+    commitAll(root);
+    for (Path file : Arrays.asList(new File(sources, "Changed.java").toPath(), quoted)) {
+      String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+      Files.write(file, content.replace("int y;", "int z;").getBytes(StandardCharsets.UTF_8));
+    }
+
+    FMT fmt = (FMT) mojoRule.lookupConfiguredMojo(root, FORMAT);
+    fmt.execute();
+
+    assertThat(fmt.getFilesProcessed()).hasSize(2);
+    for (Path file : Arrays.asList(new File(sources, "Changed.java").toPath(), quoted)) {
+      assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8))
+          .isEqualTo(
+              "class Changed {\n  void a() {  int x;}\n\n  void b() {\n    int z;\n  }\n}\n");
+    }
+  }
+
+  @Test
+  public void isFormattedAgreesWithFormatOnUnusedImports() throws Exception {
+    assertIsFormattedAgreesWithFormat("import java.util.List;\n\nclass Unused {}\n", false, false);
+  }
+
+  @Test
+  public void isFormattedAgreesWithFormatOnUnsortedImports() throws Exception {
+    String source =
+        "import java.util.Map;\nimport java.util.List;\n\n"
+            + "class Unsorted {\n  List<String> list;\n  Map<String, String> map;\n}\n";
+    assertIsFormattedAgreesWithFormat(source, false, false);
+    assertIsFormattedAgreesWithFormat(source, true, true);
+  }
+
+  @Test
+  public void isFormattedAgreesWithFormatWithoutImports() throws Exception {
+    assertIsFormattedAgreesWithFormat("class NoImports {\n  int x;\n}\n", false, true);
+    assertIsFormattedAgreesWithFormat("class NoImports {  int x;}\n", false, false);
+  }
+
+  @Test
+  public void isFormattedAgreesWithFormatOnFormattedSource() throws Exception {
+    assertIsFormattedAgreesWithFormat(
+        "import java.util.List;\nimport java.util.Map;\n\n"
+            + "class Formatted {\n  List<String> list;\n  Map<String, String> map;\n}\n",
+        false,
+        true);
+  }
+
+  @Test
+  public void isFormattedSkipsEveryStageForSourcesAlreadyFoundFormatted() throws Exception {
+    JavaFormatterOptions.Style style = JavaFormatterOptions.Style.GOOGLE;
+    JavaSourceFormatter formatter =
+        new JavaSourceFormatter(Formatters.forStyle(style), style, false);
+    String source = "import java.util.List;\n\nclass Known {\n  List<String> list;\n}\n";
+    PhaseTimer first = new PhaseTimer();
+    assertThat(formatter.isFormatted(source, first)).isTrue();
+    assertThat(first.total()).isGreaterThan(0L);
+
+    PhaseTimer second = new PhaseTimer();
+    assertThat(formatter.isFormatted(source, second)).isTrue();
+    assertThat(formatter.format(source, second)).isEqualTo(source);
+    assertThat(second.total()).isEqualTo(0L);
+
+    String changed = source.replace("  List", "List");
+    assertThat(formatter.isFormatted(changed, second)).isFalse();
+    assertThat(formatter.isFormatted(changed, second)).isFalse();
+  }
+
+  @Test
+  public void formatServiceChecksFilesWithoutMaven() throws Exception {
+    Path root = new File(loadPom("format_service"), "src/main/java").toPath();
+    try (FormatService service = FormatService.builder().build()) {
+      FormattingResults results = service.formatBatch(Collections.singletonList(root)).join();
+      assertThat(results.getFilesProcessedCount()).isEqualTo(2);
+      assertThat(results.getNonComplyingFilesCount()).isEqualTo(1);
+
+      byte[] content = "class Inline {  int x;}".getBytes(StandardCharsets.UTF_8);
+      String formatted =
+          service.format(Paths.get("Inline.java"), new ByteArrayInputStream(content)).join();
+      assertThat(formatted).isEqualTo("class Inline {\n  int x;\n}\n");
+    }
+  }
+
+  @Test
+  public void formatServiceRewritesFilesWithoutMaven() throws Exception {
+    File project = temporaryFolder.newFolder("format_service");
+    FileUtils.copyDirectory(loadPom("format_service"), project);
+    Path root = new File(project, "src/main/java").toPath();
+    byte[] formatted = Files.readAllBytes(root.resolve("Formatted.java"));
+    try (FormatService service = FormatService.builder().rewrite(true).threads(1).build()) {
+      FormattingResults results = service.formatBatch(Collections.singletonList(root)).join();
+      assertThat(results.getNonComplyingFiles())
+          .containsExactly(root.resolve("Unformatted.java").toFile().getAbsolutePath());
+      for (FileResult result : results.getResults()) {
+        assertThat(result.isWritten())
+            .isEqualTo(result.getStatus() == FileResult.Status.NON_COMPLIANT);
+      }
+
+      results = service.formatBatch(Collections.singletonList(root)).join();
+      assertThat(results.getFilesProcessedCount()).isEqualTo(2);
+      assertThat(results.getNonComplyingFilesCount()).isEqualTo(0);
+    }
+    assertThat(Files.readAllBytes(root.resolve("Formatted.java"))).isEqualTo(formatted);
+  }
+
+  @Test
+  public void formatServiceHoldsContentsWithinTheBudget() throws Exception {
+    try (FormatService service = FormatService.builder().maxInFlightBytes(1024).build()) {
+      FormattingBudget budget = service.executors().budget();
+      int share = budget.acquire(1024);
+      List<String> formatted = new ArrayList<>();
+      Thread caller =
+          new Thread(
+              () -> {
+                byte[] content = "class Inline {  int x;}".getBytes(StandardCharsets.UTF_8);
+                formatted.add(
+                    service
+                        .format(Paths.get("Inline.java"), new ByteArrayInputStream(content))
+                        .join());
+              });
+      caller.start();
+      caller.join(200);
+      assertThat(caller.isAlive()).isTrue();
+
+      budget.release(share);
+      caller.join(10_000);
+      assertThat(formatted).containsExactly("class Inline {\n  int x;\n}\n");
+
+      Thread next = new Thread(() -> budget.release(budget.acquire(1024)));
+      next.start();
+      next.join(10_000);
+      assertThat(next.isAlive()).isFalse();
+    }
+  }
+
+  @Test
+  public void ioRunsOnPlatformThreadsWithoutTheJava21Classes() throws Exception {
+    // The tests run from target/classes, which does not use META-INF/versions/21.
+    assertThat(IoThreads.supportsVirtualThreads()).isFalse();
+    try (FormattingExecutors executors = new FormattingExecutors(1, 0, true)) {
+      String name =
+          CompletableFuture.supplyAsync(() -> Thread.currentThread().getName(), executors.io())
+              .join();
+      assertThat(name).startsWith("fmt-io-");
+      assertThat(executors.io().getUtilization()).isAtLeast(0.0);
+    }
+  }
+
+  private static void assertIsFormattedAgreesWithFormat(
+      String source, boolean skipSortingImports, boolean formatted) throws Exception {
+    JavaSourceFormatter formatter =
+        FormatterEngines.javaFormatter(JavaFormatterOptions.Style.GOOGLE, skipSortingImports);
+    assertThat(formatter.isFormatted(source)).isEqualTo(source.equals(formatter.format(source)));
+    assertThat(formatter.isFormatted(source)).isEqualTo(formatted);
+  }
+
+  private static FileResult fileResult(String name, FileResult.Status status) {
+    return new FileResult(
+        new File(name), status, 0, 0, 0, false, new long[FileResult.Phase.values().length]);
+  }
+
   private File loadPom(String folderName) {
     return new File("src/test/resources/", folderName);
   }
+
+  /** Copies a test project to a temporary folder and commits it to a new git repository. */
+  private File loadGitProject(String folderName) throws Exception {
+    File root = temporaryFolder.newFolder(folderName);
+    FileUtils.copyDirectory(loadPom(folderName), root);
+    GitChangedFiles.git(root, "init", "-q");
+    commitAll(root);
+    return root;
+  }
+
+  private static void commitAll(File root) throws Exception {
+    GitChangedFiles.git(root, "add", ".");
+    GitChangedFiles.git(
+        root,
+        "-c",
+        "user.name=fmt",
+        "-c",
+        "user.email=fmt@example.com",
+        "-c",
+        "commit.gpgsign=false",
+        "commit",
+        "-q",
+        "-m",
+        "Commit");
+  }
 }
@@ -0,0 +1,74 @@
+package com.coveo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+/**
+ * Runs against the packaged multi-release jar on Java 21 and later, see the <code>java21</code>
+ * profile, since the classes of <code>META-INF/versions/21</code> are not used from a directory.
+ */
+public class IoThreadsIT {
+
+  @Test
+  public void runsIoOnVirtualThreads() throws Exception {
+    assertThat(IoThreads.supportsVirtualThreads()).isTrue();
+    try (FormattingExecutors executors = new FormattingExecutors(1, 0, true)) {
+      Thread thread = CompletableFuture.supplyAsync(Thread::currentThread, executors.io()).join();
+      assertThat(isVirtual(thread)).isTrue();
+      assertThat(thread.getName()).startsWith("fmt-io-");
+      assertThat(executors.io().getUtilization()).isNaN();
+    }
+  }
+
+  @Test
+  public void runsIoOnPlatformThreadsWhenVirtualThreadsAreDisabled() throws Exception {
+    try (FormattingExecutors executors = new FormattingExecutors(1, 0, false)) {
+      Thread thread = CompletableFuture.supplyAsync(Thread::currentThread, executors.io()).join();
+      assertThat(isVirtual(thread)).isFalse();
+    }
+  }
+
+  @Test
+  public void boundsTheIoTasksRunningAtOnce() throws Exception {
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    try (FormattingExecutors executors = new FormattingExecutors(1, 0, true)) {
+      List<CompletableFuture<Void>> tasks = new ArrayList<>();
+      for (int i = 0; i < 300; i++) {
+        tasks.add(
+            CompletableFuture.runAsync(
+                () -> {
+                  maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                  try {
+                    release.await(30, TimeUnit.SECONDS);
+                  } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                  }
+                  running.decrementAndGet();
+                },
+                executors.io()));
+      }
+      long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+      while (executors.io().getQueueDepth() > 300 - 256 && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+      assertThat(executors.io().getQueueDepth()).isEqualTo(300 - 256);
+      release.countDown();
+      CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+    }
+    assertThat(maxRunning.get()).isEqualTo(256);
+  }
+
+  private static boolean isVirtual(Thread thread) throws ReflectiveOperationException {
+    // Thread.isVirtual() is not in the Java 8 API the tests are compiled against.
+    return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+  }
+}
@@ -0,0 +1,111 @@
+package com.coveo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.List;
+import org.junit.Test;
+
+public class LineDiffTest {
+
+  @Test
+  public void sameLinesHaveNoHunks() {
+    assertThat(LineDiff.diff("a\nb\n", "a\nb\n", 3)).isEmpty();
+    assertThat(LineDiff.diff("", "", 3)).isEmpty();
+  }
+
+  @Test
+  public void emptyOriginal() {
+    List<LineDiff.Hunk> hunks = LineDiff.diff("", "a\nb\n", 3);
+
+    assertThat(hunks).hasSize(1);
+    assertHunk(hunks.get(0), 1, 1, "@@ -0,0 +1,2 @@\n+a\n+b\n");
+  }
+
+  @Test
+  public void emptyRevised() {
+    List<LineDiff.Hunk> hunks = LineDiff.diff("a\nb\n", "", 3);
+
+    assertThat(hunks).hasSize(1);
+    assertHunk(hunks.get(0), 1, 2, "@@ -1,2 +0,0 @@\n-a\n-b\n");
+  }
+
+  @Test
+  public void missingFinalNewline() {
+    List<LineDiff.Hunk> hunks = LineDiff.diff("a\nb", "a\nb\n", 3);
+
+    assertThat(hunks).hasSize(1);
+    assertHunk(hunks.get(0), 2, 2, "@@ -1,2 +1,2 @@\n a\n-b\n\\ No newline at end of file\n+b\n");
+  }
+
+  @Test
+  public void allLinesChanged() {
+    List<LineDiff.Hunk> hunks = LineDiff.diff("a\nb\nc\n", "x\ny\n", 3);
+
+    assertThat(hunks).hasSize(1);
+    assertHunk(hunks.get(0), 1, 3, "@@ -1,3 +1,2 @@\n-a\n-b\n-c\n+x\n+y\n");
+  }
+
+  @Test
+  public void insertionAtStart() {
+    List<LineDiff.Hunk> hunks = LineDiff.diff("a\nb\n", "x\na\nb\n", 3);
+
+    assertThat(hunks).hasSize(1);
+    assertHunk(hunks.get(0), 1, 1, "@@ -1,2 +1,3 @@\n+x\n a\n b\n");
+  }
+
+  @Test
+  public void insertionAtEnd() {
+    List<LineDiff.Hunk> hunks = LineDiff.diff("a\nb\n", "a\nb\nx\n", 3);
+
+    assertThat(hunks).hasSize(1);
+    assertHunk(hunks.get(0), 2, 2, "@@ -1,2 +1,3 @@\n a\n b\n+x\n");
+  }
+
+  @Test
+  public void deletionAtStart() {
+    List<LineDiff.Hunk> hunks = LineDiff.diff("x\na\nb\n", "a\nb\n", 3);
+
+    assertThat(hunks).hasSize(1);
+    assertHunk(hunks.get(0), 1, 1, "@@ -1,3 +1,2 @@\n-x\n a\n b\n");
+  }
+
+  @Test
+  public void deletionAtEnd() {
+    List<LineDiff.Hunk> hunks = LineDiff.diff("a\nb\nx\n", "a\nb\n", 3);
+
+    assertThat(hunks).hasSize(1);
+    assertHunk(hunks.get(0), 3, 3, "@@ -1,3 +1,2 @@\n a\n b\n-x\n");
+  }
+
+  @Test
+  public void distantChangesAreSeparateHunks() {
+    List<LineDiff.Hunk> hunks =
+        LineDiff.diff("1\n2\n3\n4\n5\n6\n7\n8\n", "1\nX\n3\n4\n5\n6\n7\nY\n", 1);
+
+    assertThat(hunks).hasSize(2);
+    assertHunk(hunks.get(0), 2, 2, "@@ -1,3 +1,3 @@\n 1\n-2\n+X\n 3\n");
+    assertHunk(hunks.get(1), 8, 8, "@@ -7,2 +7,2 @@\n 7\n-8\n+Y\n");
+  }
+
+  @Test
+  public void nearbyChangesShareAHunk() {
+    List<LineDiff.Hunk> hunks = LineDiff.diff("1\n2\n3\n4\n5\n", "X\n2\n3\n4\nY\n", 2);
+
+    assertThat(hunks).hasSize(1);
+    assertHunk(hunks.get(0), 1, 5, "@@ -1,5 +1,5 @@\n-1\n+X\n 2\n 3\n 4\n-5\n+Y\n");
+  }
+
+  @Test
+  public void lineSeparatorChangesAreDifferences() {
+    List<LineDiff.Hunk> hunks = LineDiff.diff("a\r\nb\n", "a\nb\n", 3);
+
+    assertThat(hunks).hasSize(1);
+    assertHunk(hunks.get(0), 1, 1, "@@ -1,2 +1,2 @@\n-a\r\n+a\n b\n");
+  }
+
+  private static void assertHunk(LineDiff.Hunk hunk, int line, int endLine, String text) {
+    assertThat(hunk.text).isEqualTo(text);
+    assertThat(hunk.line).isEqualTo(line);
+    assertThat(hunk.endLine).isEqualTo(endLine);
+  }
+}
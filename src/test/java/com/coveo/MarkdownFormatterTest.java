@@ -0,0 +1,88 @@
+package com.coveo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.googlejavaformat.java.JavaFormatterOptions;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class MarkdownFormatterTest {
+
+  private final MarkdownFormatter formatter =
+      new MarkdownFormatter(
+          FormatterEngines.javaFormatter(JavaFormatterOptions.Style.GOOGLE, false));
+  private final List<String> skipped = new ArrayList<>();
+
+  @Test
+  public void formatsJavaBlocks() {
+    String input = "# Title\n\n```java\nclass A {  int x;}\n```\n\nText  \n";
+
+    assertThat(format(input))
+        .isEqualTo("# Title\n\n```java\nclass A {\n  int x;\n}\n```\n\nText  \n");
+    assertThat(skipped).isEmpty();
+  }
+
+  @Test
+  public void keepsTheIndentationOfIndentedFences() {
+    String input = "* Item\n\n  ```java\n  class A {  int x;}\n  ```\n";
+
+    assertThat(format(input))
+        .isEqualTo("* Item\n\n  ```java\n  class A {\n    int x;\n  }\n  ```\n");
+  }
+
+  @Test
+  public void formatsTildeFences() {
+    String input = "~~~java\nclass A {  int x;}\n~~~\n";
+
+    assertThat(format(input)).isEqualTo("~~~java\nclass A {\n  int x;\n}\n~~~\n");
+  }
+
+  @Test
+  public void blockEndsAtAFenceOfItsOwnKind() {
+    String input = "~~~java\n/** ``` */\nclass A {  int x;}\n~~~\n";
+
+    assertThat(format(input)).isEqualTo("~~~java\n/** ``` */\nclass A {\n  int x;\n}\n~~~\n");
+  }
+
+  @Test
+  public void leavesUnclosedBlocksAsTheyAre() {
+    String input = "Text\n\n```java\nclass A {  int x;}\n";
+
+    assertThat(format(input)).isEqualTo(input);
+    assertThat(skipped).containsExactly("3: the block is not closed");
+  }
+
+  @Test
+  public void leavesOtherLanguagesAsTheyAre() {
+    String input =
+        "```javascript\nvar a = {  x: 1};\n```\n\n```\nclass A {  int x;}\n```\n\n"
+            + "```kotlin\nclass A {  val x = 1}\n```\n";
+
+    assertThat(format(input)).isEqualTo(input);
+    assertThat(skipped).isEmpty();
+  }
+
+  @Test
+  public void reportsBlocksThatAreNotCompilationUnits() {
+    String input = "Intro\n\n```java\nint x = 1;  x++;\n```\n\n```java\nclass A {  int x;}\n```\n";
+
+    assertThat(format(input))
+        .isEqualTo(
+            "Intro\n\n```java\nint x = 1;  x++;\n```\n\n```java\nclass A {\n  int x;\n}\n```\n");
+    assertThat(skipped).hasSize(1);
+    assertThat(skipped.get(0)).startsWith("3: ");
+  }
+
+  @Test
+  public void formatsBlocksOfCrlfDocuments() {
+    String input = "Text\r\n\r\n```java\r\nclass A {  int x;}\r\n```\r\n";
+
+    assertThat(format(input))
+        .isEqualTo("Text\r\n\r\n```java\r\nclass A {\r\n  int x;\r\n}\r\n```\r\n");
+  }
+
+  private String format(String input) {
+    return formatter.format(input, (line, reason) -> skipped.add(line + ": " + reason));
+  }
+}
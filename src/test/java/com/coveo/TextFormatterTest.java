@@ -0,0 +1,57 @@
+package com.coveo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+
+public class TextFormatterTest {
+
+  private final TextFormatter formatter = new TextFormatter();
+
+  @Test
+  public void removesTrailingSpacesAndTabs() {
+    assertThat(formatter.format("a  \nb\t\nc\n")).isEqualTo("a\nb\nc\n");
+  }
+
+  @Test
+  public void keepsCrlfSeparators() {
+    assertThat(formatter.format("a \r\nb\t\r\n")).isEqualTo("a\r\nb\r\n");
+  }
+
+  @Test
+  public void endsWithTheFirstSeparatorFound() {
+    assertThat(formatter.format("a\r\nb\nc")).isEqualTo("a\r\nb\nc\r\n");
+  }
+
+  @Test
+  public void addsMissingFinalNewline() {
+    assertThat(formatter.format("a\nb")).isEqualTo("a\nb\n");
+    assertThat(formatter.format("a")).isEqualTo("a\n");
+  }
+
+  @Test
+  public void dropsTrailingBlankLines() {
+    assertThat(formatter.format("a\n\n\n")).isEqualTo("a\n");
+    assertThat(formatter.format("a\r\n  \r\n\t\r\n")).isEqualTo("a\r\n");
+  }
+
+  @Test
+  public void keepsBlankLinesBetweenContent() {
+    assertThat(formatter.format("a\n\n  \nb\n")).isEqualTo("a\n\n\nb\n");
+  }
+
+  @Test
+  public void emptiesWhitespaceOnlyContent() {
+    assertThat(formatter.format("")).isEmpty();
+    assertThat(formatter.format("  \t")).isEmpty();
+    assertThat(formatter.format(" \n\t\n")).isEmpty();
+    assertThat(formatter.format("\r\n")).isEmpty();
+  }
+
+  @Test
+  public void formattedContentIsLeftAsItIs() throws Exception {
+    assertThat(formatter.isFormatted("a\n\nb\n")).isTrue();
+    assertThat(formatter.isFormatted("a\r\nb\r\n")).isTrue();
+    assertThat(formatter.isFormatted("a\nb")).isFalse();
+  }
+}
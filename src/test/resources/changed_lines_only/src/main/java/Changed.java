@@ -0,0 +1,5 @@
+class Changed {
+  void a() {  int x;}
+
+  void b() {  int y;}
+}
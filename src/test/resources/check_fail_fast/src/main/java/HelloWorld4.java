@@ -0,0 +1,7 @@
+package notestsource.src.main.java;
+
+public class HelloWorld4 {
+public static void main(String[] args) {
+System.out.println("Hello World!");
+}
+}
@@ -0,0 +1,4 @@
+class Latin {
+// caf
+  int  x;
+}
@@ -0,0 +1,3 @@
+class Formatted {
+  int x;
+}
@@ -0,0 +1 @@
+class Unformatted {  int x;}
@@ -0,0 +1 @@
+class Changed {  int x;}
@@ -0,0 +1 @@
+class Unchanged {  int x;}